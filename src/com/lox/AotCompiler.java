@@ -0,0 +1,235 @@
+package com.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * Compiles a whole Lox program ahead of time, for `--compile=<output>`.
+ *
+ * Instead of running the program, this "engine" translates it to one
+ * Java class (see JavaEmitter): the top-level code becomes its main()
+ * method and every function declaration a static method, wrapped in a
+ * CompiledFunction when the declaration runs. The class is compiled
+ * with the JDK's compiler and written, together with the runtime
+ * classes it uses, either as a runnable jar or as a directory of class
+ * files. Running it needs no scanning, parsing or resolving.
+ */
+class AotCompiler extends JavaEmitter implements Engine {
+    private final Path output;
+    private final String className;
+
+    // The static fields holding the program's constants: their names
+    // by initializer, and their declarations.
+    private final Map<String, String> fields = new HashMap<>();
+    private final StringBuilder declarations = new StringBuilder();
+    // Functions whose closures have been emitted but whose bodies haven't.
+    private final List<Stmt.Function> functions = new ArrayList<>();
+
+    /**
+     * @param output A .jar file, or a directory for the class files.
+     * @param script The path of the script, which names the class.
+     */
+    AotCompiler(Path output, String script) {
+        this.output = output;
+        this.className = className(script);
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements, int frameSize) {
+        Map<String, byte[]> classes = compile(className, translate(statements, frameSize));
+        if (classes == null) {
+            System.err.println("Could not compile: no Java compiler is available, " +
+                "or the program is too large.");
+            Lox.hadRuntimeError = true;
+            return;
+        }
+
+        try {
+            Map<String, byte[]> files = runtimeClasses();
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                files.put(entry.getKey().replace('.', '/') + ".class", entry.getValue());
+            }
+            if (output.toString().endsWith(".jar")) {
+                writeJar(files);
+            } else {
+                writeDirectory(files);
+            }
+        } catch (IOException | URISyntaxException error) {
+            System.err.println("Could not write " + output + ": " + error.getMessage());
+            Lox.hadRuntimeError = true;
+        }
+    }
+
+    /**
+     * Translates the program to the source of its class.
+     */
+    private String translate(List<Stmt> statements, int frameSize) {
+        StringBuilder methods = new StringBuilder();
+        methods.append("    private static void run(Interpreter interpreter) {\n");
+        methods.append(scriptBody(statements, frameSize));
+        methods.append("    }\n");
+
+        // Translating a body can queue more functions, nested in it.
+        for (int i = 0; i < functions.size(); i++) {
+            methods.append("\n    private static Object fn").append(i)
+                .append("(Interpreter interpreter, Cell[] up, java.util.List<Object> args) {\n");
+            methods.append(functionBody(functions.get(i)));
+            methods.append("    }\n");
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append("package com.lox;\n\n");
+        text.append("public final class ").append(className).append(" {\n");
+        text.append("    private static final Environment GLOBALS = new Environment();\n");
+        text.append(declarations);
+        text.append("\n");
+        text.append("    public static void main(String[] args) {\n");
+        text.append("        Natives.define(GLOBALS);\n");
+        text.append("        try {\n");
+        // There is no Interpreter; natives don't use it.
+        text.append("            run(null);\n");
+        text.append("        } catch (RuntimeError error) {\n");
+        text.append("            Lox.runtimeError(error);\n");
+        text.append("            System.exit(70);\n");
+        text.append("        }\n");
+        text.append("    }\n\n");
+        text.append(methods);
+        text.append("}\n");
+        return text.toString();
+    }
+
+    @Override
+    String token(Token token) {
+        // Only the type, lexeme and line are used at runtime.
+        String source = "new Token(TokenType." + token.type + ", " +
+            quote(token.lexeme) + ", null, " + token.line + ")";
+        return field("Token", source);
+    }
+
+    @Override
+    String string(String value) {
+        return quote(value);
+    }
+
+    @Override
+    String closure(Stmt.Function function, String upvalues) {
+        functions.add(function);
+        return "new CompiledFunction(" + quote(function.name.lexeme) + ", " +
+            function.params.size() + ", " + className + "::fn" + (functions.size() - 1) +
+            ", " + upvalues + ")";
+    }
+
+    @Override
+    String globals() {
+        return "GLOBALS";
+    }
+
+    /**
+     * Returns a static field initialized to 'source', sharing one
+     * field between identical constants.
+     */
+    private String field(String type, String source) {
+        String name = fields.get(source);
+        if (name == null) {
+            name = "K" + fields.size();
+            fields.put(source, name);
+            declarations.append("    private static final ").append(type).append(' ')
+                .append(name).append(" = ").append(source).append(";\n");
+        }
+        return name;
+    }
+
+    /**
+     * Names the class after the script, e.g. "LoxProgram_fibonacci".
+     */
+    private static String className(String script) {
+        String name = Paths.get(script).getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+
+        StringBuilder className = new StringBuilder("LoxProgram_");
+        for (char c : name.toCharArray()) {
+            className.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return className.toString();
+    }
+
+    // --- Output ---
+
+    /**
+     * Reads the classes of the Lox runtime, which the compiled program
+     * needs next to it, from wherever this class was loaded from.
+     * @return The class files, by path.
+     */
+    private static Map<String, byte[]> runtimeClasses() throws IOException, URISyntaxException {
+        Map<String, byte[]> files = new HashMap<>();
+        Path location = Paths.get(AotCompiler.class.getProtectionDomain()
+            .getCodeSource().getLocation().toURI());
+
+        if (Files.isDirectory(location)) {
+            Path runtime = location.resolve("com/lox");
+            try (Stream<Path> paths = Files.list(runtime)) {
+                for (Path path : (Iterable<Path>)paths::iterator) {
+                    String name = path.getFileName().toString();
+                    if (name.endsWith(".class")) {
+                        files.put("com/lox/" + name, Files.readAllBytes(path));
+                    }
+                }
+            }
+            return files;
+        }
+
+        try (JarFile jar = new JarFile(location.toFile())) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.getName().startsWith("com/lox/") && entry.getName().endsWith(".class")) {
+                    try (InputStream input = jar.getInputStream(entry)) {
+                        files.put(entry.getName(), input.readAllBytes());
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    private void writeJar(Map<String, byte[]> files) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "com.lox." + className);
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (OutputStream file = Files.newOutputStream(output);
+             JarOutputStream jar = new JarOutputStream(file, manifest)) {
+            for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey()));
+                jar.write(entry.getValue());
+                jar.closeEntry();
+            }
+        }
+    }
+
+    private void writeDirectory(Map<String, byte[]> files) throws IOException {
+        for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+            Path path = output.resolve(entry.getKey());
+            Files.createDirectories(path.getParent());
+            Files.write(path, entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.lox;
+
+/**
+ * The executable behaviour of an Expr.Binary in the Interpreter.
+ *
+ * Most binary expressions only ever see one combination of operand
+ * types, so re-checking the operator and the types on every evaluation
+ * is wasted work. Instead, each Expr.Binary starts with the
+ * uninitialized node. The first time it runs, it looks at the operands
+ * and rewrites the site to a node specialized for them, such as
+ * AddDoubleNode. A specialized node only checks that its guess still
+ * holds; if it ever doesn't, the site is rewritten to the generic node,
+ * which handles everything and never changes again. The one exception is
+ * a node for two Longs (see Values), which is first widened to the node
+ * for doubles when it sees other numbers.
+ *
+ * The nodes hold no state of their own, so one instance of each is
+ * shared by every site.
+ */
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new UninitializedNode();
+    static final BinaryNode GENERIC = new GenericNode();
+
+    /**
+     * Computes the result of the binary expression at 'site' for
+     * operands that have already been evaluated.
+     */
+    abstract Object execute(Expr.Binary site, Object left, Object right);
+
+    /**
+     * Rewrites 'site' to the generic node after a specialization's
+     * guess turned out wrong.
+     */
+    static Object generalize(Expr.Binary site, Object left, Object right) {
+        site.node = GENERIC;
+        return GENERIC.execute(site, left, right);
+    }
+
+    /**
+     * Rewrites 'site' to the node for doubles (or whatever else fits)
+     * after a node for Longs saw other operands.
+     */
+    static Object widen(Expr.Binary site, Object left, Object right) {
+        BinaryNode node = specialize(site.operator.type, left, right);
+        site.node = node;
+        return node.execute(site, left, right);
+    }
+
+    /**
+     * Picks the node for the first operands a site sees.
+     */
+    private static BinaryNode specialize(TokenType operator, Object left, Object right) {
+        if (Values.isString(left) && Values.isString(right)) {
+            return operator == TokenType.PLUS ? ConcatStringNode.INSTANCE : GENERIC;
+        }
+        if (left instanceof Long && right instanceof Long) {
+            switch (operator) {
+                case PLUS:          return AddLongNode.INSTANCE;
+                case MINUS:         return SubtractLongNode.INSTANCE;
+                case STAR:          return MultiplyLongNode.INSTANCE;
+                case LESS:          return LessLongNode.INSTANCE;
+                case LESS_EQUAL:    return LessEqualLongNode.INSTANCE;
+                case GREATER:       return GreaterLongNode.INSTANCE;
+                case GREATER_EQUAL: return GreaterEqualLongNode.INSTANCE;
+                default:
+                    // Dividing makes a double anyway.
+                    break;
+            }
+        }
+        if (!(Values.isNumber(left) && Values.isNumber(right))) return GENERIC;
+
+        switch (operator) {
+            case PLUS:          return AddDoubleNode.INSTANCE;
+            case MINUS:         return SubtractDoubleNode.INSTANCE;
+            case STAR:          return MultiplyDoubleNode.INSTANCE;
+            case SLASH:         return DivideDoubleNode.INSTANCE;
+            case LESS:          return LessDoubleNode.INSTANCE;
+            case LESS_EQUAL:    return LessEqualDoubleNode.INSTANCE;
+            case GREATER:       return GreaterDoubleNode.INSTANCE;
+            case GREATER_EQUAL: return GreaterEqualDoubleNode.INSTANCE;
+            default:
+                // Equality is already a single equals() call.
+                return GENERIC;
+        }
+    }
+
+    // --- Nodes ---
+
+    private static final class UninitializedNode extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            BinaryNode node = specialize(site.operator.type, left, right);
+            site.node = node;
+            return node.execute(site, left, right);
+        }
+    }
+
+    /**
+     * A node specialized for two numbers that makes a number, computed as
+     * doubles. A Long operand is taken as the double it stands for. The
+     * Interpreter can also run it on operands it evaluated unboxed (see
+     * Interpreter.evaluateDouble()).
+     */
+    abstract static class ArithmeticNode extends BinaryNode {
+        abstract double executeDouble(Expr.Binary site, double left, double right);
+
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return executeDouble(site, (double)left, (double)right);
+            }
+            if (Values.isNumber(left) && Values.isNumber(right)) {
+                return executeDouble(site, Values.toDouble(left), Values.toDouble(right));
+            }
+            return generalize(site, left, right);
+        }
+    }
+
+    /**
+     * A node specialized for comparing two numbers as doubles, which can
+     * also run on unboxed operands (see Interpreter.evaluateBoolean()).
+     */
+    abstract static class ComparisonNode extends BinaryNode {
+        abstract boolean executeBoolean(double left, double right);
+
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return executeBoolean((double)left, (double)right);
+            }
+            if (Values.isNumber(left) && Values.isNumber(right)) {
+                return executeBoolean(Values.toDouble(left), Values.toDouble(right));
+            }
+            return generalize(site, left, right);
+        }
+    }
+
+    /**
+     * A node specialized for two Longs that makes a Long, unless the
+     * result isn't one (see Values). Other numbers widen the site to the
+     * node for doubles. The Interpreter can also run it on unboxed
+     * operands (see Interpreter.evaluateLong()).
+     */
+    abstract static class LongNode extends BinaryNode {
+        // What executeLong() gives for a result that isn't a Long. It's
+        // outside the range of Longs, so it can't be a result.
+        static final long NOT_LONG = Long.MIN_VALUE;
+
+        abstract long executeLong(long left, long right);
+
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                long result = executeLong((long)left, (long)right);
+                if (result != NOT_LONG) return Values.box(result);
+                return GENERIC.execute(site, left, right);
+            }
+            return widen(site, left, right);
+        }
+
+        static long inRange(long result) {
+            // One unsigned comparison for -MAX_INTEGER <= result <= MAX_INTEGER.
+            return Long.compareUnsigned(result + Values.MAX_INTEGER, 2 * Values.MAX_INTEGER) <= 0 ?
+                result : NOT_LONG;
+        }
+    }
+
+    /**
+     * A node specialized for comparing two Longs, which can also run on
+     * unboxed operands (see Interpreter.evaluateBoolean()). Other numbers
+     * widen the site to the node for doubles.
+     */
+    abstract static class LongComparisonNode extends BinaryNode {
+        abstract boolean executeBoolean(long left, long right);
+
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                return executeBoolean((long)left, (long)right);
+            }
+            return widen(site, left, right);
+        }
+    }
+
+    static final class LessLongNode extends LongComparisonNode {
+        static final BinaryNode INSTANCE = new LessLongNode();
+
+        @Override
+        boolean executeBoolean(long left, long right) {
+            return left < right;
+        }
+    }
+
+    static final class LessEqualLongNode extends LongComparisonNode {
+        static final BinaryNode INSTANCE = new LessEqualLongNode();
+
+        @Override
+        boolean executeBoolean(long left, long right) {
+            return left <= right;
+        }
+    }
+
+    static final class GreaterLongNode extends LongComparisonNode {
+        static final BinaryNode INSTANCE = new GreaterLongNode();
+
+        @Override
+        boolean executeBoolean(long left, long right) {
+            return left > right;
+        }
+    }
+
+    static final class GreaterEqualLongNode extends LongComparisonNode {
+        static final BinaryNode INSTANCE = new GreaterEqualLongNode();
+
+        @Override
+        boolean executeBoolean(long left, long right) {
+            return left >= right;
+        }
+    }
+
+    static final class AddLongNode extends LongNode {
+        static final BinaryNode INSTANCE = new AddLongNode();
+
+        @Override
+        long executeLong(long left, long right) {
+            return inRange(left + right);
+        }
+    }
+
+    static final class SubtractLongNode extends LongNode {
+        static final BinaryNode INSTANCE = new SubtractLongNode();
+
+        @Override
+        long executeLong(long left, long right) {
+            return inRange(left - right);
+        }
+    }
+
+    static final class MultiplyLongNode extends LongNode {
+        static final BinaryNode INSTANCE = new MultiplyLongNode();
+
+        @Override
+        long executeLong(long left, long right) {
+            long product = left * right;
+            if (Math.multiplyHigh(left, right) != (product >> 63)) return NOT_LONG;
+            // Zero times a negative number is -0 (see Values.multiply()).
+            if (product == 0 && (left < 0 || right < 0)) return NOT_LONG;
+            return inRange(product);
+        }
+    }
+
+    static final class AddDoubleNode extends ArithmeticNode {
+        static final BinaryNode INSTANCE = new AddDoubleNode();
+
+        @Override
+        double executeDouble(Expr.Binary site, double left, double right) {
+            return left + right;
+        }
+    }
+
+    static final class ConcatStringNode extends BinaryNode {
+        static final BinaryNode INSTANCE = new ConcatStringNode();
+
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            if (Values.isString(left) && Values.isString(right)) {
+                return Rope.concat((CharSequence)left, (CharSequence)right);
+            }
+            return generalize(site, left, right);
+        }
+    }
+
+    static final class SubtractDoubleNode extends ArithmeticNode {
+        static final BinaryNode INSTANCE = new SubtractDoubleNode();
+
+        @Override
+        double executeDouble(Expr.Binary site, double left, double right) {
+            return left - right;
+        }
+    }
+
+    static final class MultiplyDoubleNode extends ArithmeticNode {
+        static final BinaryNode INSTANCE = new MultiplyDoubleNode();
+
+        @Override
+        double executeDouble(Expr.Binary site, double left, double right) {
+            return left * right;
+        }
+    }
+
+    static final class DivideDoubleNode extends ArithmeticNode {
+        static final BinaryNode INSTANCE = new DivideDoubleNode();
+
+        @Override
+        double executeDouble(Expr.Binary site, double left, double right) {
+            if (right == 0.0) {
+                throw new RuntimeError(site.operator, "Division by zero.");
+            }
+            return left / right;
+        }
+    }
+
+    static final class LessDoubleNode extends ComparisonNode {
+        static final BinaryNode INSTANCE = new LessDoubleNode();
+
+        @Override
+        boolean executeBoolean(double left, double right) {
+            return left < right;
+        }
+    }
+
+    static final class LessEqualDoubleNode extends ComparisonNode {
+        static final BinaryNode INSTANCE = new LessEqualDoubleNode();
+
+        @Override
+        boolean executeBoolean(double left, double right) {
+            return left <= right;
+        }
+    }
+
+    static final class GreaterDoubleNode extends ComparisonNode {
+        static final BinaryNode INSTANCE = new GreaterDoubleNode();
+
+        @Override
+        boolean executeBoolean(double left, double right) {
+            return left > right;
+        }
+    }
+
+    static final class GreaterEqualDoubleNode extends ComparisonNode {
+        static final BinaryNode INSTANCE = new GreaterEqualDoubleNode();
+
+        @Override
+        boolean executeBoolean(double left, double right) {
+            return left >= right;
+        }
+    }
+
+    /**
+     * Handles every operator and operand type, reporting type errors.
+     */
+    private static final class GenericNode extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            Token operator = site.operator;
+            switch (operator.type) {
+                // Arithmetic
+                case MINUS:
+                    checkNumberOperands(operator, left, right);
+                    if (left instanceof Long && right instanceof Long) {
+                        return Values.subtract((long)left, (long)right);
+                    }
+                    return Values.toDouble(left) - Values.toDouble(right);
+                case SLASH:
+                    checkNumberOperands(operator, left, right);
+                    if (Values.toDouble(right) == 0.0) {
+                        throw new RuntimeError(operator, "Division by zero.");
+                    }
+                    return Values.toDouble(left) / Values.toDouble(right);
+                case STAR:
+                    checkNumberOperands(operator, left, right);
+                    if (left instanceof Long && right instanceof Long) {
+                        return Values.multiply((long)left, (long)right);
+                    }
+                    return Values.toDouble(left) * Values.toDouble(right);
+                case PLUS: {
+                    // '+' is overloaded for numbers and strings
+                    Object sum = Values.add(left, right);
+                    if (sum != null) return sum;
+                    throw new RuntimeError(operator,
+                        "Operands must be two numbers or two strings.");
+                }
+
+                // Comparison. Two Longs are compared as they are, since
+                // their doubles compare the same way.
+                case GREATER:
+                    checkNumberOperands(operator, left, right);
+                    if (left instanceof Long && right instanceof Long) {
+                        return (long)left > (long)right;
+                    }
+                    return Values.toDouble(left) > Values.toDouble(right);
+                case GREATER_EQUAL:
+                    checkNumberOperands(operator, left, right);
+                    if (left instanceof Long && right instanceof Long) {
+                        return (long)left >= (long)right;
+                    }
+                    return Values.toDouble(left) >= Values.toDouble(right);
+                case LESS:
+                    checkNumberOperands(operator, left, right);
+                    if (left instanceof Long && right instanceof Long) {
+                        return (long)left < (long)right;
+                    }
+                    return Values.toDouble(left) < Values.toDouble(right);
+                case LESS_EQUAL:
+                    checkNumberOperands(operator, left, right);
+                    if (left instanceof Long && right instanceof Long) {
+                        return (long)left <= (long)right;
+                    }
+                    return Values.toDouble(left) <= Values.toDouble(right);
+
+                // Equality
+                case BANG_EQUAL: return !Values.isEqual(left, right);
+                case EQUAL_EQUAL: return Values.isEqual(left, right);
+
+                default:
+                    // Unreachable.
+                    return null;
+            }
+        }
+
+        private static void checkNumberOperands(Token operator, Object left, Object right) {
+            if (Values.isNumber(left) && Values.isNumber(right)) return;
+            throw new RuntimeError(operator, "Operands must be numbers.");
+        }
+    }
+}
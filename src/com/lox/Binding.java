@@ -0,0 +1,11 @@
+package com.lox;
+
+/**
+ * Where a resolved variable lives at runtime, as worked out by the Resolver.
+ */
+enum Binding {
+    GLOBAL,  // Looked up by name in the global environment
+    LOCAL,   // A plain slot in the current call frame
+    CELL,    // A slot in the current call frame holding a captured Cell
+    UPVALUE  // A Cell captured by the running closure
+}
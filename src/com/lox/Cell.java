@@ -0,0 +1,17 @@
+package com.lox;
+
+/**
+ * A box holding a captured local variable.
+ *
+ * Only locals that some closure refers to are stored in cells.
+ * The enclosing frame and every closure share the same Cell, so
+ * assignments on either side are visible to the other, and the
+ * variable outlives the call that declared it.
+ */
+class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
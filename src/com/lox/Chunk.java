@@ -0,0 +1,40 @@
+package com.lox;
+
+import java.util.Arrays;
+
+/**
+ * A chunk of bytecode: the instructions for one function, the line
+ * each byte came from (for error messages), and its constant pool.
+ */
+class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+
+    /**
+     * Appends a byte of code.
+     */
+    void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+            lines = Arrays.copyOf(lines, lines.length * 2);
+        }
+        code[count] = (byte)value;
+        lines[count] = line;
+        count++;
+    }
+
+    /**
+     * Adds a value to the constant pool.
+     * @return The index of the new constant.
+     */
+    int addConstant(Object value) {
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constants.length * 2);
+        }
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+}
@@ -0,0 +1,46 @@
+package com.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Lox function in an ahead-of-time compiled program: a compiled body
+ * (a static method of the program's class) plus the cells it captured.
+ */
+class CompiledFunction implements LoxCallable {
+    private final String name;
+    private final int arity;
+    private final JitCode code;
+    private final Cell[] upvalues;
+
+    CompiledFunction(String name, int arity, JitCode code, Cell[] upvalues) {
+        this.name = name;
+        this.arity = arity;
+        this.code = code;
+        this.upvalues = upvalues;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        // Tail calls come back as a TailCall, to be made here in a loop.
+        CompiledFunction function = this;
+        for (;;) {
+            Object result = function.code.call(interpreter, function.upvalues, arguments);
+            if (!(result instanceof TailCall)) return result;
+
+            TailCall tail = (TailCall)result;
+            function = (CompiledFunction)tail.callee;
+            arguments = Arrays.asList(tail.arguments);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
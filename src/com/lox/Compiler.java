@@ -0,0 +1,400 @@
+package com.lox;
+
+import java.util.List;
+
+/**
+ * The Compiler lowers a resolved AST to bytecode for the VM.
+ *
+ * It relies on the Resolver for everything about variables: frame
+ * slots, captured cells and upvalues map one-to-one onto instructions,
+ * so the VM's frames have exactly the layout the Interpreter uses.
+ *
+ * While emitting code it also tracks how deep the operand stack gets,
+ * so the VM can reserve enough room for a call up front instead of
+ * checking on every push.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int[] NO_SLOTS = new int[0];
+    private static final Upvalue[] NO_UPVALUES = new Upvalue[0];
+
+    private Chunk chunk;
+    private int line = 1;     // The line of the code being compiled
+    private int depth = 0;    // The current operand stack depth
+    private int maxDepth = 0; // The deepest the stack has been
+
+    /**
+     * Main entry point. Compiles the top-level code of a program.
+     * @param frameSize The number of local slots the top-level code
+     *                  needs, as computed by the Resolver.
+     * @return The program as a function taking no arguments.
+     */
+    Prototype compile(List<Stmt> statements, int frameSize) {
+        chunk = new Chunk();
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(OpCode.NIL, 1);
+        emit(OpCode.RETURN, -1);
+        return new Prototype("script", 0, frameSize, maxDepth,
+            NO_SLOTS, NO_UPVALUES, chunk);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // --- Statement Visitor Implementations ---
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        Prototype function = compileFunction(stmt);
+
+        if (stmt.slot < 0) {
+            emitWithOperand(OpCode.CLOSURE, makeConstant(function), 1);
+            emitWithOperand(OpCode.DEFINE_GLOBAL, makeConstant(stmt.name.symbol), -1);
+        } else if (stmt.captured) {
+            // An empty cell, filled once the closure (which may capture
+            // it) exists.
+            emit(OpCode.NIL, 1);
+            emitWithOperand(OpCode.NEW_CELL, stmt.slot, -1);
+            emitWithOperand(OpCode.CLOSURE, makeConstant(function), 1);
+            emitWithOperand(OpCode.SET_CELL, stmt.slot, 0);
+            emit(OpCode.POP, -1);
+        } else {
+            emitWithOperand(OpCode.CLOSURE, makeConstant(function), 1);
+            emitWithOperand(OpCode.SET_LOCAL, stmt.slot, 0);
+            emit(OpCode.POP, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+
+        patchJump(thenJump);
+        depth++; // The else path still has the condition on the stack.
+        emit(OpCode.POP, -1);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.tailCall) {
+            // The callee replaces this frame; natives are called normally
+            // and their result returned by the RETURN.
+            Expr.Call call = (Expr.Call)stmt.value;
+            compile(call.callee);
+            for (Expr argument : call.arguments) {
+                compile(argument);
+            }
+            line = call.paren.line;
+            emit(OpCode.TAIL_CALL, -call.arguments.size());
+            emitByte(call.arguments.size());
+            line = stmt.keyword.line;
+        } else if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+        emit(OpCode.RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStmt(Stmt.Let stmt) {
+        line = stmt.name.line;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+
+        if (stmt.slot < 0) {
+            emitWithOperand(OpCode.DEFINE_GLOBAL, makeConstant(stmt.name.symbol), -1);
+        } else if (stmt.captured) {
+            emitWithOperand(OpCode.NEW_CELL, stmt.slot, -1);
+        } else {
+            emitWithOperand(OpCode.SET_LOCAL, stmt.slot, 0);
+            emit(OpCode.POP, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        depth++; // The exit path still has the condition on the stack.
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    // --- Expression Visitor Implementations ---
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        switch (expr.binding) {
+            case LOCAL:
+                emitWithOperand(OpCode.SET_LOCAL, expr.slot, 0);
+                break;
+            case CELL:
+                emitWithOperand(OpCode.SET_CELL, expr.slot, 0);
+                break;
+            case UPVALUE:
+                emitWithOperand(OpCode.SET_UPVALUE, expr.slot, 0);
+                break;
+            default:
+                emitWithOperand(OpCode.SET_GLOBAL, makeConstant(expr.name), 0);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS:         emit(OpCode.SUBTRACT, -1); break;
+            case SLASH:         emit(OpCode.DIVIDE, -1); break;
+            case STAR:          emit(OpCode.MULTIPLY, -1); break;
+            case PLUS:          emit(OpCode.ADD, -1); break;
+            case GREATER:       emit(OpCode.GREATER, -1); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, -1); break;
+            case LESS:          emit(OpCode.LESS, -1); break;
+            case LESS_EQUAL:    emit(OpCode.LESS_EQUAL, -1); break;
+            case BANG_EQUAL:    emit(OpCode.NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL:   emit(OpCode.EQUAL, -1); break;
+            default:
+                // Unreachable.
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        line = expr.paren.line;
+        emit(OpCode.CALL, -expr.arguments.size());
+        emitByte(expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        // The VM always makes the call.
+        compile(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, 1);
+        } else if (Boolean.TRUE.equals(expr.value)) {
+            emit(OpCode.TRUE, 1);
+        } else if (Boolean.FALSE.equals(expr.value)) {
+            emit(OpCode.FALSE, 1);
+        } else {
+            emitWithOperand(OpCode.CONSTANT, makeConstant(expr.value), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+
+        // Short-circuit: skip the right operand, leaving the left
+        // operand as the result.
+        int endJump = emitJump(expr.operator.type == TokenType.OR
+            ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG:  emit(OpCode.NOT, 0); break;
+            case MINUS: emit(OpCode.NEGATE, 0); break;
+            default:
+                // Unreachable.
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        switch (expr.binding) {
+            case LOCAL:
+                emitWithOperand(OpCode.GET_LOCAL, expr.slot, 1);
+                break;
+            case CELL:
+                emitWithOperand(OpCode.GET_CELL, expr.slot, 1);
+                break;
+            case UPVALUE:
+                emitWithOperand(OpCode.GET_UPVALUE, expr.slot, 1);
+                break;
+            default:
+                emitWithOperand(OpCode.GET_GLOBAL, makeConstant(expr.name), 1);
+        }
+        return null;
+    }
+
+    // --- Compiler Helper Methods ---
+
+    /**
+     * Compiles a function body into its own chunk.
+     */
+    private Prototype compileFunction(Stmt.Function function) {
+        Chunk enclosingChunk = chunk;
+        int enclosingDepth = depth;
+        int enclosingMaxDepth = maxDepth;
+        chunk = new Chunk();
+        depth = 0;
+        maxDepth = 0;
+
+        for (Stmt statement : function.body) {
+            compile(statement);
+        }
+        // If the body falls off the end, the function returns 'nil'.
+        emit(OpCode.NIL, 1);
+        emit(OpCode.RETURN, -1);
+
+        Prototype prototype = new Prototype(function.name.lexeme,
+            function.params.size(), function.frameSize, maxDepth,
+            function.capturedParams, function.upvalues, chunk);
+
+        chunk = enclosingChunk;
+        depth = enclosingDepth;
+        maxDepth = enclosingMaxDepth;
+        return prototype;
+    }
+
+    /**
+     * Emits an opcode and records its effect on the stack depth.
+     */
+    private void emit(byte opcode, int stackEffect) {
+        chunk.write(opcode, line);
+        depth += stackEffect;
+        if (depth > maxDepth) maxDepth = depth;
+    }
+
+    private void emitWithOperand(byte opcode, int operand, int stackEffect) {
+        emit(opcode, stackEffect);
+        emitShort(operand);
+    }
+
+    private void emitByte(int value) {
+        chunk.write(value, line);
+    }
+
+    private void emitShort(int value) {
+        chunk.write((value >> 8) & 0xff, line);
+        chunk.write(value & 0xff, line);
+    }
+
+    /**
+     * Emits a forward jump with a placeholder offset.
+     * @return The position of the offset, to be patched later.
+     */
+    private int emitJump(byte opcode) {
+        emit(opcode, 0);
+        emitShort(0xffff);
+        return chunk.count - 2;
+    }
+
+    /**
+     * Points a forward jump at the next instruction to be emitted.
+     */
+    private void patchJump(int offset) {
+        int jump = chunk.count - offset - 2;
+        if (jump > 0xffff) {
+            Lox.error(line, "Too much code to jump over.");
+        }
+        chunk.code[offset] = (byte)((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte)(jump & 0xff);
+    }
+
+    /**
+     * Emits a backward jump to the start of a loop.
+     */
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP, 0);
+        int offset = chunk.count - loopStart + 2;
+        if (offset > 0xffff) {
+            Lox.error(line, "Loop body too large.");
+        }
+        emitShort(offset);
+    }
+
+    private int makeConstant(Object value) {
+        int constant = chunk.addConstant(value);
+        if (constant > 0xffff) {
+            Lox.error(line, "Too many constants in one function.");
+            return 0;
+        }
+        return constant;
+    }
+}
@@ -0,0 +1,15 @@
+package com.lox;
+
+/**
+ * How a statement finished executing in the Interpreter.
+ *
+ * A 'return' is reported back up through the enclosing statements as a
+ * value instead of being thrown, so the statements that contain it
+ * (blocks, ifs and loops) just stop and pass it on to the call.
+ */
+enum Completion {
+    NORMAL,   // Carry on with the next statement
+    RETURN,   // A 'return' ran; the value is in Interpreter.returnValue
+    TAIL_CALL // A 'return' of a call to a LoxFunction, which the call
+              // runs in place of the returning function's frame
+}
@@ -0,0 +1,67 @@
+package com.lox;
+
+import java.util.List;
+
+/**
+ * A loop that counts a local up or down by a constant step, found by the
+ * Optimizer. Nearly every `for` loop has this shape:
+ *
+ *     for (let i = 0; i < n; i = i + 1) body
+ *
+ * which the Parser turns into a `while (i < n)` whose body ends with the
+ * increment. The Interpreter runs such a loop with the counter in a
+ * primitive (a long while adding Longs would make a Long, see Values, and
+ * otherwise a double): comparing and stepping it don't box anything, and
+ * it's only stored back into its slot for a body that reads it and once
+ * the loop is done.
+ *
+ * Neither the body nor the limit may assign the counter, and it can't be
+ * in a Cell, so nothing else can change it while the loop runs.
+ */
+final class CountingLoop {
+    final int slot;
+    // The condition, `counter < limit` or one of the other comparisons.
+    // Its operator is where a limit that isn't a number is reported.
+    final Expr.Binary condition;
+    final double step;
+    // Whether the step is a Long, so a counter that starts as one stays
+    // one.
+    final boolean integral;
+    // The statements of the body, without the increment.
+    final List<Stmt> body;
+    // Whether the body reads the counter, which then has to be stored
+    // into its slot on each iteration.
+    final boolean read;
+
+    CountingLoop(int slot, Expr.Binary condition, double step, boolean integral,
+                 List<Stmt> body, boolean read) {
+        this.slot = slot;
+        this.condition = condition;
+        this.step = step;
+        this.integral = integral;
+        this.body = body;
+        this.read = read;
+    }
+
+    /**
+     * Whether the loop runs another iteration with the counter at the
+     * given value.
+     */
+    boolean holds(double counter, double limit) {
+        switch (condition.operator.type) {
+            case LESS:          return counter < limit;
+            case LESS_EQUAL:    return counter <= limit;
+            case GREATER:       return counter > limit;
+            default:            return counter >= limit;
+        }
+    }
+
+    boolean holds(long counter, long limit) {
+        switch (condition.operator.type) {
+            case LESS:          return counter < limit;
+            case LESS_EQUAL:    return counter <= limit;
+            case GREATER:       return counter > limit;
+            default:            return counter >= limit;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the pure functions in a program, for `--memoize`.
+ *
+ * A function is pure when what a call returns depends only on its
+ * arguments, and the call does nothing else the program can observe,
+ * so a repeated call can be answered with the earlier result. That is
+ * the case when the function:
+ *
+ * - doesn't print;
+ * - doesn't assign any variable outside its own frame;
+ * - captures nothing and declares no closures;
+ * - only reads globals that are defined once and never assigned; and
+ * - only calls such globals that are pure functions themselves.
+ *   Natives, like clock(), and any other callee are impure.
+ *
+ * The check of calls is optimistic, so that recursive functions can be
+ * pure: every function starts out pure, and those that call an impure
+ * one are ruled out until nothing changes.
+ *
+ * The analysis runs after the Resolver, whose bindings tell globals and
+ * outer variables apart from a function's own.
+ */
+class EffectAnalyzer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    /**
+     * What a function's body does, as far as its purity goes.
+     */
+    private static class Effects {
+        boolean impure = false;                      // Whether it's impure on its own
+        final Set<String> reads = new HashSet<>();  // The globals it reads
+        final Set<String> calls = new HashSet<>();  // The globals it calls
+    }
+
+    // How many times each global is defined, which are assigned, and
+    // the function declarations among them.
+    private final Map<String, Integer> definitions = new HashMap<>();
+    private final Set<String> assigned = new HashSet<>();
+    private final Map<String, Stmt.Function> functions = new HashMap<>();
+
+    private final Map<Stmt.Function, Effects> effects = new LinkedHashMap<>();
+    // The effects of the function being walked, or null at the top level.
+    private Effects current = null;
+
+    /**
+     * Gives each pure function in the program a memo cache.
+     * @param cacheSize The most results each cache keeps.
+     */
+    void analyze(List<Stmt> statements, int cacheSize) {
+        walk(statements);
+
+        Set<Stmt.Function> pure = new HashSet<>(effects.keySet());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<Stmt.Function, Effects> entry : effects.entrySet()) {
+                if (pure.contains(entry.getKey()) && !isPure(entry.getValue(), pure)) {
+                    pure.remove(entry.getKey());
+                    changed = true;
+                }
+            }
+        }
+
+        for (Stmt.Function function : pure) {
+            function.memo = new MemoCache(cacheSize);
+        }
+    }
+
+    /**
+     * Whether a function is pure, given the functions still thought to be.
+     */
+    private boolean isPure(Effects effects, Set<Stmt.Function> pure) {
+        if (effects.impure) return false;
+        for (String name : effects.reads) {
+            if (!isConstant(name)) return false;
+        }
+        for (String name : effects.calls) {
+            Stmt.Function callee = functions.get(name);
+            if (callee == null || !pure.contains(callee)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether a global always holds the same value once it's defined.
+     */
+    private boolean isConstant(String name) {
+        return definitions.getOrDefault(name, 0) == 1 && !assigned.contains(name);
+    }
+
+    private void walk(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private void walk(Expr expr) {
+        expr.accept(this);
+    }
+
+    // --- Statements ---
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        walk(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        walk(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.slot < 0) {
+            definitions.merge(stmt.name.lexeme, 1, Integer::sum);
+            functions.put(stmt.name.lexeme, stmt);
+        }
+        // A closure is a new object on every call.
+        if (current != null) current.impure = true;
+
+        Effects enclosing = current;
+        current = new Effects();
+        current.impure = stmt.upvalues.length > 0;
+        effects.put(stmt, current);
+        walk(stmt.body);
+        current = enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        walk(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        if (current != null) current.impure = true;
+        walk(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) walk(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStmt(Stmt.Let stmt) {
+        if (stmt.slot < 0) definitions.merge(stmt.name.lexeme, 1, Integer::sum);
+        if (stmt.initializer != null) walk(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        walk(stmt.condition);
+        stmt.body.accept(this);
+        return null;
+    }
+
+    // --- Expressions ---
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (expr.binding == Binding.GLOBAL) assigned.add(expr.name.lexeme);
+        if (current != null && (expr.binding == Binding.GLOBAL || expr.binding == Binding.UPVALUE)) {
+            current.impure = true;
+        }
+        walk(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        walk(expr.left);
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (current != null) {
+            if (expr.callee instanceof Expr.Variable &&
+                    ((Expr.Variable)expr.callee).binding == Binding.GLOBAL) {
+                current.calls.add(((Expr.Variable)expr.callee).name.lexeme);
+            } else {
+                // There's no telling what a local or computed callee does.
+                current.impure = true;
+            }
+        }
+        walk(expr.callee);
+        for (Expr argument : expr.arguments) {
+            walk(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        walk(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        // It has the effects of the call it stands for.
+        walk(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        walk(expr.left);
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (current != null) {
+            if (expr.binding == Binding.GLOBAL) current.reads.add(expr.name.lexeme);
+            if (expr.binding == Binding.UPVALUE) current.impure = true;
+        }
+        return null;
+    }
+}
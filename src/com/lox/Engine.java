@@ -0,0 +1,27 @@
+package com.lox;
+
+import java.util.List;
+
+/**
+ * An execution engine: something that can run a resolved program.
+ *
+ * The tree-walking Interpreter is the reference engine; the others
+ * must behave exactly like it, including their error messages.
+ */
+interface Engine {
+    /**
+     * Runs a list of top-level statements that have been resolved.
+     * @param statements The program.
+     * @param frameSize The number of local slots the top-level code
+     *                  needs, as computed by the Resolver.
+     */
+    void interpret(List<Stmt> statements, int frameSize);
+
+    /**
+     * Whether the engine takes whole number literals as Longs (see
+     * Values), rather than all numbers as Doubles.
+     */
+    default boolean integers() {
+        return false;
+    }
+}
@@ -4,69 +4,67 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Manages the state (variables) of the program.
- * Environments are chained together to create lexical scopes.
+ * Holds the program's global variables.
+ *
+ * Globals are stored by name, because they can be defined dynamically
+ * (for example, one line at a time in the REPL). Local variables don't
+ * live here at all: the Resolver gives each one a slot in its function's
+ * frame, and the Interpreter keeps those frames on its own slot stack.
+ *
+ * Names are interned Symbols, which hash to their precomputed hash and
+ * compare by identity, so a lookup never touches a string's characters.
  */
 class Environment {
-    final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<Symbol, Object> values = new HashMap<>();
 
-    /**
-     * Constructor for the global environment.
-     */
-    Environment() {
-        enclosing = null;
-    }
+    // Changes whenever a global might stop holding the callable it held,
+    // which invalidates the Interpreter's call-site caches. Assigning
+    // ordinary values (like a loop counter) leaves it alone.
+    int version = 0;
 
     /**
-     * Constructor for nested (local) scopes.
-     * @param enclosing The outer scope.
+     * Defines (or redefines) a global variable.
      */
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
+    void define(Symbol name, Object value) {
+        values.put(name, value);
+        version++;
     }
 
-    /**
-     * Defines a new variable in the *current* scope.
-     */
     void define(String name, Object value) {
-        values.put(name, value);
+        define(Symbol.of(name), value);
     }
 
     /**
-     * Gets the value of a variable.
-     * If not found in this scope, it checks the enclosing (outer) scope.
+     * Gets the value of a global variable.
      */
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
+        Object value = values.get(name.symbol);
+        // A variable can be defined as nil, so look twice for null.
+        if (value != null || values.containsKey(name.symbol)) return value;
 
-        // Recursively check the parent environment
-        if (enclosing != null) return enclosing.get(name);
-
-        // If not found anywhere, it's a runtime error.
+        // If not found, it's a runtime error.
         throw new RuntimeError(name,
             "Undefined variable '" + name.lexeme + "'.");
     }
 
     /**
-     * Assigns a new value to an *existing* variable.
-     * If not found in this scope, it checks the enclosing scope.
+     * Gets the value of a global variable, or null if it isn't defined.
      */
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+    Object find(Symbol name) {
+        return values.get(name);
+    }
 
-        // Recursively check the parent environment
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+    /**
+     * Assigns a new value to an *existing* global variable.
+     */
+    void assign(Token name, Object value) {
+        if (values.containsKey(name.symbol)) {
+            Object previous = values.put(name.symbol, value);
+            if (previous instanceof LoxCallable) version++;
             return;
         }
 
-        // If not found anywhere, it's a runtime error.
+        // If not found, it's a runtime error.
         throw new RuntimeError(name,
             "Undefined variable '" + name.lexeme + "'.");
     }
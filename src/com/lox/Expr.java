@@ -16,6 +16,7 @@ abstract class Expr {
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
     R visitGroupingExpr(Grouping expr);
+    R visitInlineExpr(Inline expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
     R visitUnaryExpr(Unary expr);
@@ -35,6 +36,10 @@ abstract class Expr {
   static class Assign extends Expr {
     final Token name;
     final Expr value;
+    // Filled in by the Resolver. The slot is a frame slot or an
+    // upvalue index, depending on the binding.
+    Binding binding = Binding.GLOBAL;
+    int slot = -1;
 
     Assign(Token name, Expr value) {
       this.name = name;
@@ -54,6 +59,9 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    // How the Interpreter evaluates this site. Rewritten at runtime
+    // as the node specializes itself.
+    BinaryNode node = BinaryNode.UNINITIALIZED;
 
     Binary(Expr left, Token operator, Expr right) {
       this.left = left;
@@ -74,6 +82,11 @@ abstract class Expr {
     final Expr callee;
     final Token paren; // The closing parenthesis ')' for error reporting
     final List<Expr> arguments;
+    // Inline cache, filled in by the Interpreter: the callable this site
+    // last called, already checked, and for a global callee the version
+    // of the globals it was looked up in (see Environment.version).
+    LoxCallable cachedCallee;
+    int cachedVersion = -1;
 
     Call(Expr callee, Token paren, List<Expr> arguments) {
       this.callee = callee;
@@ -103,6 +116,37 @@ abstract class Expr {
     }
   }
 
+  /**
+   * A call to a small global function with the function's body put in
+   * its place, made by the Optimizer. The arguments are stored into new
+   * slots of the caller's frame, which the body reads instead of the
+   * parameters. If the name no longer holds that function when the site
+   * runs, the original call runs instead.
+   */
+  static class Inline extends Expr {
+    final Call call;
+    final Stmt.Function function;
+    // The slot each argument is stored into, or -1 for an argument
+    // that was put into the body as it is (a literal or a local).
+    final int[] slots;
+    final Expr body;
+    // The version of the globals in which the name was last checked to
+    // hold the function (see Environment.version).
+    int cachedVersion = -1;
+
+    Inline(Call call, Stmt.Function function, int[] slots, Expr body) {
+      this.call = call;
+      this.function = function;
+      this.slots = slots;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInlineExpr(this);
+    }
+  }
+
   /**
    * A literal value, e.g., `123`, `"hello"`, `true`.
    */
@@ -162,6 +206,10 @@ abstract class Expr {
    */
   static class Variable extends Expr {
     final Token name;
+    // Filled in by the Resolver. The slot is a frame slot or an
+    // upvalue index, depending on the binding.
+    Binding binding = Binding.GLOBAL;
+    int slot = -1;
 
     Variable(Token name) {
       this.name = name;
@@ -0,0 +1,19 @@
+package com.lox;
+
+/**
+ * The activation record of one call in the lambda engine.
+ *
+ * The Resolver already knows how many slots each function needs, so a
+ * frame is just an array of that size plus the closure's captured cells.
+ */
+final class Frame {
+    final Object[] slots;
+    final Cell[] upvalues;
+    // Set by a 'return' statement before it unwinds to the call.
+    Object returnValue;
+
+    Frame(int size, Cell[] upvalues) {
+        this.slots = new Object[size];
+        this.upvalues = upvalues;
+    }
+}
@@ -1,7 +1,6 @@
 package com.lox;
 
-import java.io.IOException; // Already here from last time
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -10,78 +9,63 @@ import java.util.List;
  *
  * It implements the Visitor pattern for both expressions and statements.
  */
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion>, Engine {
+
+    private static final Cell[] NO_UPVALUES = new Cell[0];
 
     // The 'globals' environment stores native functions (like 'clock').
     final Environment globals = new Environment();
-    // 'environment' tracks the *current* scope.
-    private Environment environment = globals;
-    // 'locals' is used for variable resolution (not fully implemented here
-    // but essential for a more advanced interpreter).
-
-    Interpreter() {
-        // Define a native 'clock' function
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() { return 0; }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
-
-            @Override
-            public String toString() { return "<native fn>"; }
-        });
-
-        // --- MODIFIED NATIVE FUNCTION ---
-        globals.define("runGame", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0; // <-- CHANGED (from 1 to 0)
-            }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                // --- CHANGED ---
-                // We no longer get the path from the arguments list.
-                // We hard-code it directly as a string.
-                String path = "Tetris/game";
-                // --- END OF CHANGE ---
+    // The locals of every active call live in one growable array.
+    // Each call owns a window of it starting at 'base', sized by the
+    // Resolver; 'top' is the first slot past the current frame.
+    // Calls that capture nothing therefore allocate nothing.
+    private Object[] stack = new Object[256];
+    private int base = 0;
+    private int top = 0;
+    // The cells captured by the running closure.
+    private Cell[] upvalues = NO_UPVALUES;
+    // The value of the 'return' being passed back to the call, while
+    // statements complete with Completion.RETURN.
+    private Object returnValue;
+    // The function and arguments of a tail call, while statements
+    // complete with Completion.TAIL_CALL.
+    private LoxFunction tailCallee;
+    private Object[] tailArguments;
+
+    // Compiles hot functions to JVM bytecode, or null to interpret
+    // everything (see JitCompiler).
+    final JitCompiler jit;
 
-                try {
-                    // Use ProcessBuilder to prepare the command
-                    ProcessBuilder pb = new ProcessBuilder(path);
-
-                    // This makes the game's console output appear in your Java console
-                    pb.inheritIO();
-                    
-                    // Start the process
-                    Process process = pb.start();
-
-                    // PAUSE the Lox script and wait for the game to be closed
-                    int exitCode = process.waitFor();
+    Interpreter() {
+        this(false);
+    }
 
-                    // Return the game's exit code to Lox
-                    return (double)exitCode; // Lox uses doubles for all numbers
+    Interpreter(boolean jit) {
+        this.jit = jit ? new JitCompiler() : null;
+        Natives.define(globals);
+    }
 
-                } catch (IOException e) {
-                    throw new RuntimeError(null, "Failed to start process: " + e.getMessage());
-                } catch (InterruptedException e) {
-                    throw new RuntimeError(null, "Process was interrupted: " + e.getMessage());
-                }
-            }
-            
-            @Override
-            public String toString() { return "<native fn runGame>"; }
-        });
-        // --- END OF MODIFIED FUNCTION ---
+    /**
+     * The interpreter runs whole numbers as Longs (see Values). The JIT
+     * compiles numbers as doubles, so with it they're all Doubles.
+     */
+    @Override
+    public boolean integers() {
+        return jit == null;
     }
 
     /**
      * Main entry point. Interprets a list of statements.
+     * @param frameSize The number of local slots the top-level code
+     *                  needs, as computed by the Resolver.
      */
-    void interpret(List<Stmt> statements) {
+    @Override
+    public void interpret(List<Stmt> statements, int frameSize) {
+        base = 0;
+        top = frameSize;
+        upvalues = NO_UPVALUES;
+        ensureCapacity(top);
         try {
             for (Stmt statement : statements) {
                 execute(statement);
@@ -94,27 +78,176 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     /**
      * Executes a single statement.
      */
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
     /**
-     * Executes a block of statements in a new, nested scope.
-     * @param statements The statements in the block.
-     * @param environment The new environment for this block.
+     * Executes the body of a user-defined function in a fresh frame.
+     * @param function The closure being called.
+     * @param arguments The evaluated arguments, one per parameter.
+     * @return The function's return value.
      */
-    void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
+    Object executeCall(LoxFunction function, List<Object> arguments) {
+        int frame = pushFrame(function);
+        for (int i = 0; i < arguments.size(); i++) {
+            stack[frame + i] = arguments.get(i);
+        }
+        return runFrame(function, frame);
+    }
+
+    // Fixed-arity versions of executeCall(), which bind the arguments
+    // straight into the new frame (see LoxCallable.call0()).
+
+    Object executeCall0(LoxFunction function) {
+        return runFrame(function, pushFrame(function));
+    }
+
+    Object executeCall1(LoxFunction function, Object arg0) {
+        int frame = pushFrame(function);
+        stack[frame] = arg0;
+        return runFrame(function, frame);
+    }
+
+    Object executeCall2(LoxFunction function, Object arg0, Object arg1) {
+        int frame = pushFrame(function);
+        stack[frame] = arg0;
+        stack[frame + 1] = arg1;
+        return runFrame(function, frame);
+    }
+
+    Object executeCall3(LoxFunction function, Object arg0, Object arg1, Object arg2) {
+        int frame = pushFrame(function);
+        stack[frame] = arg0;
+        stack[frame + 1] = arg1;
+        stack[frame + 2] = arg2;
+        return runFrame(function, frame);
+    }
+
+    /**
+     * Makes room for a new frame above the caller's.
+     * @return The frame's first slot, where the arguments go.
+     */
+    private int pushFrame(LoxFunction function) {
+        ensureCapacity(top + function.declaration.frameSize);
+        return top;
+    }
+
+    /**
+     * Runs a function's body in the frame at 'frame', whose parameters
+     * have been bound, then pops the frame. A memoized function's
+     * result may come from its cache instead.
+     */
+    private Object runFrame(LoxFunction function, int frame) {
+        MemoCache memo = function.declaration.memo;
+        if (memo == null) return runBody(function, frame);
+
+        // The cache is only good while the globals it saw are unchanged.
+        if (memo.version != globals.version) {
+            memo.clear();
+            memo.version = globals.version;
+        }
+        int arity = function.declaration.params.size();
+        List<Object> key = Arrays.asList(Arrays.copyOfRange(stack, frame, frame + arity));
+        Object value = memo.lookup(key);
+        if (value == MemoCache.MISSING) {
+            value = runBody(function, frame);
+            // (A TailCall from the JIT isn't the result yet.)
+            if (!(value instanceof TailCall)) memo.put(key, value);
+        } else {
+            Arrays.fill(stack, frame, frame + arity, null);
+        }
+        return value;
+    }
+
+    /**
+     * Runs a function's body in the frame at 'frame', whose parameters
+     * have been bound, then pops the frame.
+     *
+     * This is also the trampoline for tail calls: a body that completes
+     * with a tail call has its frame replaced by the callee's, which then
+     * runs in the same loop, so tail-recursive functions run in constant
+     * Java stack space.
+     */
+    private Object runBody(LoxFunction function, int frame) {
+        int previousBase = base;
+        Cell[] previousUpvalues = upvalues;
+
         try {
-            this.environment = environment;
-            for (Stmt statement : statements) {
-                execute(statement);
+            base = frame;
+            for (;;) {
+                Stmt.Function declaration = function.declaration;
+                for (int slot : declaration.capturedParams) {
+                    stack[frame + slot] = new Cell(stack[frame + slot]);
+                }
+                top = frame + declaration.frameSize;
+                upvalues = function.upvalues;
+
+                Completion completion = Completion.NORMAL;
+                for (Stmt statement : declaration.body) {
+                    completion = execute(statement);
+                    if (completion != Completion.NORMAL) break;
+                }
+                if (completion == Completion.NORMAL) {
+                    // If the function completes without a 'return', it implicitly returns 'nil'.
+                    return null;
+                }
+                if (completion == Completion.RETURN) {
+                    Object value = returnValue;
+                    returnValue = null;
+                    return value;
+                }
+
+                // Replace this frame with the tail call's.
+                function = tailCallee;
+                Object[] arguments = tailArguments;
+                tailCallee = null;
+                tailArguments = null;
+                if (jit != null && function.compiled(this) != null) {
+                    // Compiled code runs outside the Interpreter, so the
+                    // call is handed back to LoxFunction.call() to make.
+                    return new TailCall(function, arguments);
+                }
+                Arrays.fill(stack, frame, top, null);
+                ensureCapacity(frame + function.declaration.frameSize);
+                System.arraycopy(arguments, 0, stack, frame, arguments.length);
             }
         } finally {
-            // Restore the previous environment when the block is exited
-            // (even if an exception occurs).
-            this.environment = previous;
+            // Pop the frame (even if an exception occurs), clearing it so
+            // the stack doesn't keep dead values alive.
+            Arrays.fill(stack, frame, top, null);
+            top = frame;
+            base = previousBase;
+            upvalues = previousUpvalues;
+        }
+    }
+
+    /**
+     * Grows the slot stack so it can hold at least 'size' slots.
+     */
+    private void ensureCapacity(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+        }
+    }
+
+    /**
+     * Collects the cells a new closure captures from the current frame
+     * and the running closure.
+     */
+    private Cell[] captureUpvalues(Stmt.Function declaration) {
+        if (declaration.upvalues.length == 0) return NO_UPVALUES;
+
+        Cell[] cells = new Cell[declaration.upvalues.length];
+        for (int i = 0; i < cells.length; i++) {
+            Upvalue upvalue = declaration.upvalues[i];
+            if (upvalue.isLocal) {
+                cells[i] = (Cell)stack[base + upvalue.index];
+            } else {
+                cells[i] = upvalues[upvalue.index];
+            }
         }
+        return cells;
     }
 
     /**
@@ -124,72 +257,370 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
+    /**
+     * Thrown by evaluateDouble() when a value turns out not to be a
+     * number. It carries the value, already evaluated, so the caller can
+     * carry on with it as an Object.
+     */
+    private static final class UnexpectedResult extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Object value;
+
+        UnexpectedResult(Object value) {
+            super(null, null, false, false); // No stack trace, so it's cheap
+            this.value = value;
+        }
+    }
+
+    /**
+     * Evaluates an expression that's expected to be a number, without
+     * boxing it. Arithmetic sites specialized for numbers evaluate their
+     * operands this way, so a subtree like `a * b + c` is computed in
+     * primitives and only its result is boxed, by whoever needs it as an
+     * Object.
+     * @throws UnexpectedResult if the value isn't a number.
+     */
+    private double evaluateDouble(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            if (binary.node instanceof BinaryNode.ArithmeticNode) {
+                return evaluateArithmetic(binary, (BinaryNode.ArithmeticNode)binary.node);
+            }
+            if (binary.node instanceof BinaryNode.LongNode) {
+                try {
+                    return evaluateLongArithmetic(binary, (BinaryNode.LongNode)binary.node);
+                } catch (UnexpectedResult result) {
+                    return expectDouble(result.value);
+                }
+            }
+        } else if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            if (variable.binding == Binding.LOCAL) return expectDouble(stack[base + variable.slot]);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            if (unary.operator.type == TokenType.MINUS) return negate(unary);
+        }
+        return expectDouble(evaluate(expr));
+    }
+
+    private static double expectDouble(Object value) {
+        if (value instanceof Double) return (double)value;
+        if (value instanceof Long) return (long)value;
+        throw new UnexpectedResult(value);
+    }
+
+    /**
+     * Evaluates an arithmetic site specialized for numbers on unboxed
+     * operands. If an operand isn't a number after all, the site goes
+     * generic with the operands it has, and evaluates the rest as usual.
+     * @throws UnexpectedResult if the result isn't a number.
+     */
+    private double evaluateArithmetic(Expr.Binary site, BinaryNode.ArithmeticNode node) {
+        double left;
+        try {
+            left = evaluateDouble(site.left);
+        } catch (UnexpectedResult result) {
+            return expectDouble(BinaryNode.generalize(site, result.value, evaluate(site.right)));
+        }
+        double right;
+        try {
+            right = evaluateDouble(site.right);
+        } catch (UnexpectedResult result) {
+            return expectDouble(BinaryNode.generalize(site, left, result.value));
+        }
+        return node.executeDouble(site, left, right);
+    }
+
+    /**
+     * Evaluates an expression that's expected to be a Long, without
+     * boxing it, like evaluateDouble() does for doubles.
+     * @throws UnexpectedResult if the value isn't a Long.
+     */
+    private long evaluateLong(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            if (binary.node instanceof BinaryNode.LongNode) {
+                return evaluateLongArithmetic(binary, (BinaryNode.LongNode)binary.node);
+            }
+        } else if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            if (variable.binding == Binding.LOCAL) return expectLong(stack[base + variable.slot]);
+        } else if (expr instanceof Expr.Literal) {
+            return expectLong(((Expr.Literal)expr).value);
+        }
+        return expectLong(evaluate(expr));
+    }
+
+    private static long expectLong(Object value) {
+        if (value instanceof Long) return (long)value;
+        throw new UnexpectedResult(value);
+    }
+
+    /**
+     * Evaluates an arithmetic site specialized for Longs on unboxed
+     * operands. An operand that isn't a Long widens the site, and a
+     * result that isn't one (past the range of Longs, say) is thrown as
+     * it is.
+     * @throws UnexpectedResult if the result isn't a Long.
+     */
+    private long evaluateLongArithmetic(Expr.Binary site, BinaryNode.LongNode node) {
+        long left;
+        try {
+            left = evaluateLong(site.left);
+        } catch (UnexpectedResult result) {
+            return expectLong(node.execute(site, result.value, evaluate(site.right)));
+        }
+        long right;
+        try {
+            right = evaluateLong(site.right);
+        } catch (UnexpectedResult result) {
+            return expectLong(node.execute(site, left, result.value));
+        }
+        long result = node.executeLong(left, right);
+        if (result == BinaryNode.LongNode.NOT_LONG) {
+            throw new UnexpectedResult(BinaryNode.GENERIC.execute(site, left, right));
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates a comparison site specialized for numbers on unboxed
+     * operands, going generic like evaluateArithmetic() if it must.
+     */
+    private boolean evaluateComparison(Expr.Binary site, BinaryNode.ComparisonNode node) {
+        double left;
+        try {
+            left = evaluateDouble(site.left);
+        } catch (UnexpectedResult result) {
+            return Values.isTruthy(BinaryNode.generalize(site, result.value, evaluate(site.right)));
+        }
+        double right;
+        try {
+            right = evaluateDouble(site.right);
+        } catch (UnexpectedResult result) {
+            return Values.isTruthy(BinaryNode.generalize(site, left, result.value));
+        }
+        return node.executeBoolean(left, right);
+    }
+
+    /**
+     * Evaluates a comparison site specialized for Longs on unboxed
+     * operands, widening it like evaluateLongArithmetic() if it must.
+     */
+    private boolean evaluateLongComparison(Expr.Binary site, BinaryNode.LongComparisonNode node) {
+        long left;
+        try {
+            left = evaluateLong(site.left);
+        } catch (UnexpectedResult result) {
+            return Values.isTruthy(node.execute(site, result.value, evaluate(site.right)));
+        }
+        long right;
+        try {
+            right = evaluateLong(site.right);
+        } catch (UnexpectedResult result) {
+            return Values.isTruthy(node.execute(site, left, result.value));
+        }
+        return node.executeBoolean(left, right);
+    }
+
+    /**
+     * Evaluates a condition to its truthiness. Comparisons of numbers,
+     * `!`, `and` and `or` are worked out on primitive booleans, so a
+     * condition like `i < n and !done` boxes nothing.
+     */
+    private boolean evaluateBoolean(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            if (binary.node instanceof BinaryNode.ComparisonNode) {
+                return evaluateComparison(binary, (BinaryNode.ComparisonNode)binary.node);
+            }
+            if (binary.node instanceof BinaryNode.LongComparisonNode) {
+                return evaluateLongComparison(binary, (BinaryNode.LongComparisonNode)binary.node);
+            }
+        } else if (expr instanceof Expr.Logical) {
+            // `a and b` is truthy when both are, `a or b` when either is.
+            Expr.Logical logical = (Expr.Logical)expr;
+            if (logical.operator.type == TokenType.OR) {
+                return evaluateBoolean(logical.left) || evaluateBoolean(logical.right);
+            }
+            return evaluateBoolean(logical.left) && evaluateBoolean(logical.right);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            if (unary.operator.type == TokenType.BANG) return !evaluateBoolean(unary.right);
+        }
+        return Values.isTruthy(evaluate(expr));
+    }
+
     // --- Statement Visitor Implementations ---
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        // Create a new environment nested within the current one.
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        // A block's variables already have slots in the current frame,
+        // so entering a block allocates nothing.
+        for (Stmt statement : stmt.statements) {
+            Completion completion = execute(statement);
+            if (completion != Completion.NORMAL) return completion;
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression); // Evaluate for side effects
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        // Create a function object and define it in the *current* environment.
-        // The function 'closes over' the current environment.
-        LoxFunction function = new LoxFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.slot < 0) {
+            globals.define(stmt.name.symbol,
+                new LoxFunction(stmt, captureUpvalues(stmt)));
+            return Completion.NORMAL;
+        }
+
+        if (stmt.captured) {
+            // The cell goes in first, in case the function captures itself.
+            Cell cell = new Cell(null);
+            stack[base + stmt.slot] = cell;
+            cell.value = new LoxFunction(stmt, captureUpvalues(stmt));
+        } else {
+            stack[base + stmt.slot] = new LoxFunction(stmt, captureUpvalues(stmt));
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+    public Completion visitIfStmt(Stmt.If stmt) {
+        if (evaluateBoolean(stmt.condition)) {
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+        System.out.println(Values.stringify(value));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) return tailCall((Expr.Call)stmt.value);
+
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
-        // We use an exception to unwind the call stack to the call site.
-        throw new Return(value);
+        // The enclosing statements stop and pass this back to the call.
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitLetStmt(Stmt.Let stmt) {
+    public Completion visitLetStmt(Stmt.Let stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        // Define the variable in the current environment.
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        // Define the variable in its slot. A captured variable gets a
+        // fresh Cell each time, so closures made in a loop don't share it.
+        if (stmt.slot < 0) {
+            globals.define(stmt.name.symbol, value);
+        } else if (stmt.captured) {
+            stack[base + stmt.slot] = new Cell(value);
+        } else {
+            stack[base + stmt.slot] = value;
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        if (stmt.counting != null) {
+            Completion completion = executeCounting(stmt.counting);
+            if (completion != null) return completion;
+        }
+
+        while (evaluateBoolean(stmt.condition)) {
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) return completion;
+        }
+        return Completion.NORMAL;
+    }
+
+    /**
+     * Runs a loop that counts a local by a constant step (see
+     * CountingLoop) with the counter in a primitive, stored into its slot
+     * only when the loop reads it and when the loop is done.
+     * @return null if the counter doesn't start out as a number, which
+     *         leaves the loop to run as an ordinary one.
+     */
+    private Completion executeCounting(CountingLoop loop) {
+        Object start = stack[base + loop.slot];
+        if (start instanceof Long && loop.integral) return countLongs(loop, (long)start);
+        if (!Values.isNumber(start)) return null;
+        return countDoubles(loop, Values.toDouble(start));
+    }
+
+    /**
+     * Runs a counting loop with a long counter, since adding Longs makes
+     * Longs. Past their range, the counter carries on as a double from
+     * the (rounded) sum, as adding doubles would.
+     */
+    private Completion countLongs(CountingLoop loop, long counter) {
+        long step = (long)loop.step;
+        while (counter >= -Values.MAX_INTEGER && counter <= Values.MAX_INTEGER) {
+            if (loop.read) stack[base + loop.slot] = Values.box(counter);
+            if (!countingHolds(loop, counter)) {
+                stack[base + loop.slot] = Values.box(counter);
+                return Completion.NORMAL;
+            }
+
+            for (Stmt statement : loop.body) {
+                Completion completion = execute(statement);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            counter += step;
+        }
+        return countDoubles(loop, counter);
+    }
+
+    private Completion countDoubles(CountingLoop loop, double counter) {
+        for (;;) {
+            if (loop.read) stack[base + loop.slot] = counter;
+            if (!loop.holds(counter, countingLimit(loop))) break;
+
+            for (Stmt statement : loop.body) {
+                Completion completion = execute(statement);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            counter += loop.step;
+        }
+        stack[base + loop.slot] = counter;
+        return Completion.NORMAL;
+    }
+
+    private boolean countingHolds(CountingLoop loop, long counter) {
+        long limit;
+        try {
+            limit = evaluateLong(loop.condition.right);
+        } catch (UnexpectedResult result) {
+            if (!Values.isNumber(result.value)) {
+                throw new RuntimeError(loop.condition.operator, "Operands must be numbers.");
+            }
+            return loop.holds(counter, Values.toDouble(result.value));
+        }
+        return loop.holds(counter, limit);
+    }
+
+    private double countingLimit(CountingLoop loop) {
+        try {
+            return evaluateDouble(loop.condition.right);
+        } catch (UnexpectedResult result) {
+            throw new RuntimeError(loop.condition.operator, "Operands must be numbers.");
         }
-        return null;
     }
 
     // --- Expression Visitor Implementations ---
@@ -197,13 +628,34 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        switch (expr.binding) {
+            case LOCAL:
+                stack[base + expr.slot] = value;
+                break;
+            case CELL:
+                ((Cell)stack[base + expr.slot]).value = value;
+                break;
+            case UPVALUE:
+                upvalues[expr.slot].value = value;
+                break;
+            default:
+                globals.assign(expr.name, value);
+        }
         return value;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        switch (expr.binding) {
+            case LOCAL:
+                return stack[base + expr.slot];
+            case CELL:
+                return ((Cell)stack[base + expr.slot]).value;
+            case UPVALUE:
+                return upvalues[expr.slot].value;
+            default:
+                return globals.get(expr.name);
+        }
     }
 
     @Override
@@ -217,9 +669,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         // Handle short-circuiting
         if (expr.operator.type == TokenType.OR) {
-            if (isTruthy(left)) return left;
+            if (Values.isTruthy(left)) return left;
         } else { // AND
-            if (!isTruthy(left)) return left;
+            if (!Values.isTruthy(left)) return left;
         }
         
         return evaluate(expr.right);
@@ -232,13 +684,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
         switch (expr.operator.type) {
             case BANG:
-                return !isTruthy(right);
-            case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                return !evaluateBoolean(expr.right);
+            case MINUS: {
+                // Negating a Long keeps it one (see Values.negate()).
+                Object value = evaluate(expr.right);
+                if (value instanceof Double) return -(double)value;
+                if (value instanceof Long) return Values.negate(value);
+                throw new RuntimeError(expr.operator, "Operand must be a number.");
+            }
             default:
                 // Unreachable.
                 return null;
@@ -247,148 +702,181 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        // A site specialized for numbers evaluates its operands unboxed;
+        // only its own result is boxed.
+        BinaryNode node = expr.node;
+        if (node instanceof BinaryNode.LongNode) {
+            try {
+                return Values.box(evaluateLongArithmetic(expr, (BinaryNode.LongNode)node));
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+        if (node instanceof BinaryNode.ArithmeticNode) {
+            try {
+                return evaluateArithmetic(expr, (BinaryNode.ArithmeticNode)node);
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+        if (node instanceof BinaryNode.ComparisonNode) {
+            return evaluateComparison(expr, (BinaryNode.ComparisonNode)node);
+        }
+        if (node instanceof BinaryNode.LongComparisonNode) {
+            return evaluateLongComparison(expr, (BinaryNode.LongComparisonNode)node);
+        }
+
         Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right); 
+        Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
-            // Arithmetic
-            case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
-            case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                if ((double)right == 0.0) {
-                    throw new RuntimeError(expr.operator, "Division by zero.");
+        // The site's node specializes itself to the operand types it
+        // sees (see BinaryNode).
+        return expr.node.execute(expr, left, right);
+    }
+
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        // A global callee that hasn't been rebound since this site last
+        // called it is still in the site's cache, so it isn't looked up.
+        // (The version is read first: the arguments might rebind it.)
+        int version = globals.version;
+        Object callee = evaluateCallee(expr, version);
+        List<Expr> arguments = expr.arguments;
+
+        try {
+            // Evaluate all arguments first. Calls with up to three arguments
+            // pass them directly instead of allocating a list.
+            switch (arguments.size()) {
+                case 0:
+                    return checkCall(expr, callee, version).call0(this);
+                case 1: {
+                    Object arg0 = evaluate(arguments.get(0));
+                    return checkCall(expr, callee, version).call1(this, arg0);
                 }
-                return (double)left / (double)right;
-            case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
-            case PLUS:
-                // '+' is overloaded for numbers and strings
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
-                } 
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
+                case 2: {
+                    Object arg0 = evaluate(arguments.get(0));
+                    Object arg1 = evaluate(arguments.get(1));
+                    return checkCall(expr, callee, version).call2(this, arg0, arg1);
                 }
-                // Allow string concatenation with numbers
-                if (left instanceof String && right instanceof Double) {
-                    return (String)left + stringify(right);
+                case 3: {
+                    Object arg0 = evaluate(arguments.get(0));
+                    Object arg1 = evaluate(arguments.get(1));
+                    Object arg2 = evaluate(arguments.get(2));
+                    return checkCall(expr, callee, version).call3(this, arg0, arg1, arg2);
                 }
-                if (left instanceof Double && right instanceof String) {
-                    return stringify(left) + (String)right;
+                default: {
+                    Object[] values = new Object[arguments.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = evaluate(arguments.get(i));
+                    }
+                    return checkCall(expr, callee, version).callN(this, values);
                 }
-                throw new RuntimeError(expr.operator, 
-                    "Operands must be two numbers or two strings.");
-
-            // Comparison
-            case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
-            case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
-            case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
-
-            // Equality
-            case BANG_EQUAL: return !isEqual(left, right);
-            case EQUAL_EQUAL: return isEqual(left, right);
-            
-            default:
-                // Unreachable.
-                return null;
+            }
+        } catch (StackOverflowError error) {
+            // Each Lox call takes several Java frames, so deep recursion
+            // can run out of Java stack. (The VM keeps its frames on the
+            // heap, and can go much deeper; see `--stack-size`.)
+            throw new RuntimeError(expr.paren, "Stack overflow.");
         }
     }
 
     @Override
-    public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
-
-        // Evaluate all arguments first
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) { 
-            arguments.add(evaluate(argument));
-        }
-
-        if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
-        }
-
-        LoxCallable function = (LoxCallable)callee;
-
-        // Check arity (number of arguments)
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " +
-                function.arity() + " arguments but got " +
-                arguments.size() + ".");
+    public Object visitInlineExpr(Expr.Inline expr) {
+        // The body only stands for the call while the name still holds
+        // the function it came from. That's checked again whenever the
+        // globals might have been rebound, and before the arguments run,
+        // just as the callee would be evaluated before them.
+        if (expr.cachedVersion != globals.version) {
+            Object callee = globals.find(expr.function.name.symbol);
+            if (!(callee instanceof LoxFunction) ||
+                    ((LoxFunction)callee).declaration != expr.function) {
+                return visitCallExpr(expr.call);
+            }
+            expr.cachedVersion = globals.version;
         }
 
-        try {
-            return function.call(this, arguments);
-        } catch (Return returnValue) {
-            // This is how we handle 'return'. We catch the exception
-            // and return its value.
-            return returnValue.value;
+        List<Expr> arguments = expr.call.arguments;
+        for (int i = 0; i < expr.slots.length; i++) {
+            if (expr.slots[i] >= 0) stack[base + expr.slots[i]] = evaluate(arguments.get(i));
         }
+        return evaluate(expr.body);
     }
 
     // --- Interpreter Helper Methods ---
 
     /**
-     * Lox follows Ruby's rule: 'false' and 'nil' are falsey,
-     * everything else is truthy.
+     * Evaluates a call's callee, unless it's a global still in the call
+     * site's cache (see checkCall()).
      */
-    private boolean isTruthy(Object object) {
-        if (object == null) return false;
-        if (object instanceof Boolean) return (boolean)object;
-        return true;
+    private Object evaluateCallee(Expr.Call expr, int version) {
+        return expr.cachedVersion == version ? expr.cachedCallee : evaluate(expr.callee);
     }
 
     /**
-     * Checks for Lox-style equality.
+     * Executes a 'return' of a call. A call to a LoxFunction isn't made
+     * here: the current call's trampoline makes it once this frame is
+     * gone (see runFrame()).
      */
-    private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) return true;
-        if (a == null) return false;
-        return a.equals(b);
+    private Completion tailCall(Expr.Call expr) {
+        int version = globals.version;
+        Object callee = evaluateCallee(expr, version);
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expr.arguments.get(i));
+        }
+
+        LoxCallable function = checkCall(expr, callee, version);
+        if (function instanceof LoxFunction) {
+            tailCallee = (LoxFunction)function;
+            tailArguments = arguments;
+            return Completion.TAIL_CALL;
+        }
+        returnValue = function.callN(this, arguments);
+        return Completion.RETURN;
     }
 
     /**
-     * Converts a Lox object to a Java string for printing.
+     * Runtime check that a call's callee can be called with its
+     * (already evaluated) arguments.
+     *
+     * Each call site caches the last callee that passed, so calling the
+     * same one again only costs an identity check.
+     * @param version The globals' version when the callee was evaluated.
      */
-    private String stringify(Object object) {
-        if (object == null) return "nil";
+    private LoxCallable checkCall(Expr.Call expr, Object callee, int version) {
+        LoxCallable function = expr.cachedCallee;
+        if (callee != function || function == null) {
+            if (!(callee instanceof LoxCallable)) {
+                throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            }
+
+            function = (LoxCallable)callee;
 
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
+            // Check arity (number of arguments)
+            if (expr.arguments.size() != function.arity()) {
+                throw new RuntimeError(expr.paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    expr.arguments.size() + ".");
             }
-            return text;
+            expr.cachedCallee = function;
         }
 
-        return object.toString();
-    }
-
-    /**
-     * Runtime check that an operand is a number.
-     */
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number.");
+        // A global callee can skip its lookup too, until it's rebound.
+        if (expr.callee instanceof Expr.Variable &&
+                ((Expr.Variable)expr.callee).binding == Binding.GLOBAL) {
+            expr.cachedVersion = version;
+        }
+        return function;
     }
 
     /**
-     * Runtime check that both operands are numbers.
+     * Evaluates `-operand`, which must be a number.
      */
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError(operator, "Operands must be numbers.");
+    private double negate(Expr.Unary expr) {
+        try {
+            return -evaluateDouble(expr.right);
+        } catch (UnexpectedResult result) {
+            throw new RuntimeError(expr.operator, "Operand must be a number.");
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,518 @@
+package com.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Translates resolved Lox code to Java source, and compiles that source
+ * in memory with the JDK's compiler. Shared by the JitCompiler, which
+ * compiles single hot functions, and the AotCompiler, which compiles
+ * whole programs.
+ *
+ * Each frame slot becomes a Java local variable. Values are still
+ * Objects, but arithmetic whose operands are known to be numbers is
+ * emitted as plain double operations, and conditions as booleans.
+ * Everything that needs Lox's type checks goes through JitRuntime.
+ *
+ * How constants and closures are referenced differs between the two
+ * compilers, so subclasses supply those.
+ */
+abstract class JavaEmitter {
+    // The Java type of a translated expression.
+    private enum Kind { OBJECT, DOUBLE, BOOLEAN }
+
+    /**
+     * A translated expression: Java source text and its type.
+     */
+    private static final class Code {
+        final String text;
+        final Kind kind;
+
+        Code(String text, Kind kind) {
+            this.text = text;
+            this.kind = kind;
+        }
+    }
+
+    private static final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+
+    // The state of the body being translated.
+    private StringBuilder source;
+    private int temporaries;
+    private int indent;
+
+    /**
+     * @return A Java expression of type Token for 'token'.
+     */
+    abstract String token(Token token);
+
+    /**
+     * @return A Java expression for the string constant 'value'.
+     */
+    abstract String string(String value);
+
+    /**
+     * @return A Java expression that creates a closure for 'function',
+     *         given a Java expression for its captured cells.
+     */
+    abstract String closure(Stmt.Function function, String upvalues);
+
+    /**
+     * @return A Java expression of type Environment for the globals.
+     */
+    abstract String globals();
+
+    /**
+     * Translates the body of a function to the statements of a method
+     * with the parameters of JitCode.call().
+     */
+    String functionBody(Stmt.Function function) {
+        begin();
+        for (int i = 0; i < function.frameSize; i++) {
+            if (i < function.params.size()) {
+                line("Object s" + i + " = args.get(" + i + ");");
+            } else {
+                line("Object s" + i + " = null;");
+            }
+        }
+        line("Object unused;");
+        for (int slot : function.capturedParams) {
+            line("s" + slot + " = new Cell(s" + slot + ");");
+        }
+
+        boolean completes = statements(function.body);
+        // If the body falls off the end, the function returns 'nil'.
+        if (completes) line("return null;");
+        return end();
+    }
+
+    /**
+     * Translates top-level code to the statements of a void method.
+     */
+    String scriptBody(List<Stmt> statements, int frameSize) {
+        begin();
+        for (int i = 0; i < frameSize; i++) {
+            line("Object s" + i + " = null;");
+        }
+        line("Object unused;");
+        statements(statements);
+        return end();
+    }
+
+    private void begin() {
+        source = new StringBuilder();
+        temporaries = 0;
+        indent = 2;
+    }
+
+    private String end() {
+        // Temporaries are only known once the body has been translated.
+        StringBuilder declarations = new StringBuilder();
+        for (int i = 0; i < temporaries; i++) {
+            declarations.append("        Object t").append(i).append(" = null;\n");
+        }
+        return declarations.append(source).toString();
+    }
+
+    // --- Statements ---
+
+    /**
+     * Translates a list of statements, dropping any that follow one
+     * that can't complete (javac rejects unreachable code).
+     * @return Whether control can reach the end of the list.
+     */
+    private boolean statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (!statement(statement)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Translates a statement.
+     * @return Whether control can reach the end of it.
+     */
+    private boolean statement(Stmt stmt) {
+        if (stmt instanceof Stmt.Block) {
+            line("{");
+            indent++;
+            boolean completes = statements(((Stmt.Block)stmt).statements);
+            indent--;
+            line("}");
+            return completes;
+        }
+        if (stmt instanceof Stmt.Expression) {
+            line("unused = " + object(((Stmt.Expression)stmt).expression) + ";");
+            return true;
+        }
+        if (stmt instanceof Stmt.Print) {
+            line("System.out.println(Values.stringify(" +
+                object(((Stmt.Print)stmt).expression) + "));");
+            return true;
+        }
+        if (stmt instanceof Stmt.Return) {
+            Stmt.Return returnStmt = (Stmt.Return)stmt;
+            Expr value = returnStmt.value;
+            if (returnStmt.tailCall) {
+                // Returned for the caller to make (see TailCall).
+                Expr.Call call = (Expr.Call)value;
+                line("return JitRuntime.tailCall(interpreter, " + token(call.paren) + ", " +
+                    object(call.callee) + ", " + arguments(call) + ");");
+                return false;
+            }
+            line("return " + (value == null ? "null" : object(value)) + ";");
+            return false;
+        }
+        if (stmt instanceof Stmt.Let) {
+            Stmt.Let let = (Stmt.Let)stmt;
+            String value = let.initializer == null ? "null" : object(let.initializer);
+            if (let.slot < 0) {
+                line(globals() + ".define(\"" + let.name.lexeme + "\", " + value + ");");
+            } else if (let.captured) {
+                // A fresh Cell each time, so closures made in a loop don't share it.
+                line("s" + let.slot + " = new Cell(" + value + ");");
+            } else {
+                line("s" + let.slot + " = " + value + ";");
+            }
+            return true;
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            line("if (" + condition(ifStmt.condition) + ") {");
+            indent++;
+            boolean completes = statement(ifStmt.thenBranch);
+            indent--;
+            if (ifStmt.elseBranch == null) {
+                line("}");
+                return true;
+            }
+            line("} else {");
+            indent++;
+            completes |= statement(ifStmt.elseBranch);
+            indent--;
+            line("}");
+            return completes;
+        }
+        if (stmt instanceof Stmt.While) {
+            // Written with a break so javac never sees a constant
+            // condition, which would make the code after it unreachable.
+            Stmt.While whileStmt = (Stmt.While)stmt;
+            line("while (true) {");
+            indent++;
+            line("if (!(" + condition(whileStmt.condition) + ")) break;");
+            statement(whileStmt.body);
+            indent--;
+            line("}");
+            return true;
+        }
+
+        Stmt.Function function = (Stmt.Function)stmt;
+        String closure = closure(function, captureUpvalues(function));
+        if (function.slot < 0) {
+            line(globals() + ".define(\"" + function.name.lexeme + "\", " + closure + ");");
+        } else if (function.captured) {
+            // A recursive function captures its own cell, so it comes first.
+            line("s" + function.slot + " = new Cell(null);");
+            line("((Cell)s" + function.slot + ").value = " + closure + ";");
+        } else {
+            line("s" + function.slot + " = " + closure + ";");
+        }
+        return true;
+    }
+
+    private String captureUpvalues(Stmt.Function function) {
+        if (function.upvalues.length == 0) return "JitRuntime.NO_UPVALUES";
+
+        StringBuilder cells = new StringBuilder("new Cell[] {");
+        for (int i = 0; i < function.upvalues.length; i++) {
+            Upvalue upvalue = function.upvalues[i];
+            if (i > 0) cells.append(", ");
+            cells.append(upvalue.isLocal
+                ? "(Cell)s" + upvalue.index
+                : "up[" + upvalue.index + "]");
+        }
+        return cells.append("}").toString();
+    }
+
+    // --- Expressions ---
+
+    /**
+     * Translates an expression to a Java expression of type Object.
+     */
+    private String object(Expr expr) {
+        return object(expression(expr));
+    }
+
+    /**
+     * Translates an expression to a Java boolean holding its truthiness.
+     */
+    private String condition(Expr expr) {
+        return condition(expression(expr));
+    }
+
+    private Code expression(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            return expression(((Expr.Grouping)expr).expression);
+        }
+        if (expr instanceof Expr.Inline) {
+            // Compiled code always makes the call.
+            return expression(((Expr.Inline)expr).call);
+        }
+        if (expr instanceof Expr.Literal) {
+            return literal(((Expr.Literal)expr).value);
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            switch (variable.binding) {
+                case LOCAL:
+                    return value("s" + variable.slot);
+                case CELL:
+                    return value("((Cell)s" + variable.slot + ").value");
+                case UPVALUE:
+                    return value("up[" + variable.slot + "].value");
+                default:
+                    return value(globals() + ".get(" + token(variable.name) + ")");
+            }
+        }
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign)expr;
+            String value = object(assign.value);
+            switch (assign.binding) {
+                case LOCAL:
+                    return value("(s" + assign.slot + " = " + value + ")");
+                case CELL:
+                    return value("(((Cell)s" + assign.slot + ").value = " + value + ")");
+                case UPVALUE:
+                    return value("(up[" + assign.slot + "].value = " + value + ")");
+                default:
+                    return value("JitRuntime.assignGlobal(" + globals() + ", " +
+                        token(assign.name) + ", " + value + ")");
+            }
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            String temporary = "t" + temporaries++;
+            String left = "Values.isTruthy(" + temporary + " = " + object(logical.left) + ")";
+            String right = object(logical.right);
+            // Short-circuit: the left operand is the result unless the
+            // right one has to be evaluated.
+            if (logical.operator.type == TokenType.OR) {
+                return value("(" + left + " ? " + temporary + " : " + right + ")");
+            }
+            return value("(" + left + " ? " + right + " : " + temporary + ")");
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            Code right = expression(unary.right);
+            if (unary.operator.type == TokenType.BANG) {
+                return new Code("(!" + condition(right) + ")", Kind.BOOLEAN);
+            }
+            if (right.kind == Kind.DOUBLE) {
+                return new Code("(-" + right.text + ")", Kind.DOUBLE);
+            }
+            return new Code("JitRuntime.negate(" + token(unary.operator) + ", " +
+                object(right) + ")", Kind.DOUBLE);
+        }
+        if (expr instanceof Expr.Binary) {
+            return binary((Expr.Binary)expr);
+        }
+
+        Expr.Call call = (Expr.Call)expr;
+        String callee = object(call.callee);
+        return value("JitRuntime.call(interpreter, " + token(call.paren) + ", " +
+            callee + ", " + arguments(call) + ")");
+    }
+
+    /**
+     * Translates a call's arguments to a Java Object[] expression.
+     */
+    private String arguments(Expr.Call call) {
+        StringBuilder arguments = new StringBuilder("new Object[] {");
+        for (int i = 0; i < call.arguments.size(); i++) {
+            if (i > 0) arguments.append(", ");
+            arguments.append(object(call.arguments.get(i)));
+        }
+        return arguments.append("}").toString();
+    }
+
+    private Code binary(Expr.Binary expr) {
+        Code left = expression(expr.left);
+        Code right = expression(expr.right);
+        String operator = token(expr.operator);
+        // When both operands are already numbers, the operation is plain Java.
+        boolean numbers = left.kind == Kind.DOUBLE && right.kind == Kind.DOUBLE;
+
+        switch (expr.operator.type) {
+            case PLUS:
+                if (numbers) return inline(left, "+", right, Kind.DOUBLE);
+                return helper("add", operator, left, right, Kind.OBJECT);
+            case MINUS:
+                if (numbers) return inline(left, "-", right, Kind.DOUBLE);
+                return helper("subtract", operator, left, right, Kind.DOUBLE);
+            case STAR:
+                if (numbers) return inline(left, "*", right, Kind.DOUBLE);
+                return helper("multiply", operator, left, right, Kind.DOUBLE);
+            case SLASH:
+                if (numbers) {
+                    return new Code("JitRuntime.divide(" + operator + ", " +
+                        left.text + ", " + right.text + ")", Kind.DOUBLE);
+                }
+                return helper("divide", operator, left, right, Kind.DOUBLE);
+            case LESS:
+                if (numbers) return inline(left, "<", right, Kind.BOOLEAN);
+                return helper("less", operator, left, right, Kind.BOOLEAN);
+            case LESS_EQUAL:
+                if (numbers) return inline(left, "<=", right, Kind.BOOLEAN);
+                return helper("lessEqual", operator, left, right, Kind.BOOLEAN);
+            case GREATER:
+                if (numbers) return inline(left, ">", right, Kind.BOOLEAN);
+                return helper("greater", operator, left, right, Kind.BOOLEAN);
+            case GREATER_EQUAL:
+                if (numbers) return inline(left, ">=", right, Kind.BOOLEAN);
+                return helper("greaterEqual", operator, left, right, Kind.BOOLEAN);
+            case BANG_EQUAL:
+                return new Code("(!Values.isEqual(" + object(left) + ", " +
+                    object(right) + "))", Kind.BOOLEAN);
+            default:
+                return new Code("Values.isEqual(" + object(left) + ", " +
+                    object(right) + ")", Kind.BOOLEAN);
+        }
+    }
+
+    private static Code inline(Code left, String operator, Code right, Kind kind) {
+        return new Code("(" + left.text + " " + operator + " " + right.text + ")", kind);
+    }
+
+    private static Code helper(String name, String operator, Code left, Code right, Kind kind) {
+        return new Code("JitRuntime." + name + "(" + operator + ", " +
+            object(left) + ", " + object(right) + ")", kind);
+    }
+
+    private Code literal(Object value) {
+        if (value instanceof Double) {
+            // Folded constants (see Optimizer) can be any double.
+            double number = (double)value;
+            if (Double.isNaN(number)) return new Code("Double.NaN", Kind.DOUBLE);
+            if (number == Double.POSITIVE_INFINITY) return new Code("Double.POSITIVE_INFINITY", Kind.DOUBLE);
+            if (number == Double.NEGATIVE_INFINITY) return new Code("Double.NEGATIVE_INFINITY", Kind.DOUBLE);
+            return new Code("(" + Double.toString(number) + ")", Kind.DOUBLE);
+        }
+        if (value instanceof Boolean) return new Code(value.toString(), Kind.BOOLEAN);
+        if (value == null) return value("null");
+        return value(string((String)value));
+    }
+
+    // --- Helpers ---
+
+    private static Code value(String text) {
+        return new Code(text, Kind.OBJECT);
+    }
+
+    private static String object(Code code) {
+        if (code.kind == Kind.OBJECT) return code.text;
+        // Box the primitive.
+        return "((Object)" + code.text + ")";
+    }
+
+    private static String condition(Code code) {
+        if (code.kind == Kind.BOOLEAN) return code.text;
+        return "Values.isTruthy(" + code.text + ")";
+    }
+
+    private void line(String text) {
+        for (int i = 0; i < indent; i++) source.append("    ");
+        source.append(text).append('\n');
+    }
+
+    /**
+     * Quotes a string as a Java string literal.
+     */
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ' || c > '~') {
+                quoted.append(String.format("\\u%04x", (int)c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Compiles Java source for one top-level class in memory.
+     * @return Every class file produced, by binary name, or null if
+     *         there is no compiler or the source didn't compile.
+     */
+    static Map<String, byte[]> compile(String className, String text) {
+        if (javac == null) return null;
+
+        Map<String, ByteArrayOutputStream> output = new HashMap<>();
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///com/lox/" + className + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return text;
+            }
+        };
+
+        List<String> options = List.of("-classpath", System.getProperty("java.class.path"),
+            "-proc:none", "-nowarn", "-g:none");
+        // The file managers are closed after each compile, as the jit
+        // engine compiles once per hot function for as long as it runs.
+        try (StandardJavaFileManager standard = javac.getStandardFileManager(null, null, null);
+             JavaFileManager files = inMemory(standard, output)) {
+            Boolean compiled = javac.getTask(new StringWriter(), files,
+                new DiagnosticCollector<>(), options, null, List.of(file)).call();
+            if (!Boolean.TRUE.equals(compiled)) return null;
+        } catch (IOException error) {
+            return null;
+        }
+
+        Map<String, byte[]> classes = new HashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> entry : output.entrySet()) {
+            classes.put(entry.getKey(), entry.getValue().toByteArray());
+        }
+        return classes;
+    }
+
+    /**
+     * Wraps a file manager so the class files it writes are kept in
+     * 'output', by binary name, instead of going to disk.
+     */
+    private static JavaFileManager inMemory(StandardJavaFileManager standard,
+                                            Map<String, ByteArrayOutputStream> output) {
+        return new ForwardingJavaFileManager<JavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name,
+                                                       JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') +
+                        kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        output.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+    }
+}
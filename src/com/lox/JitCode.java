@@ -0,0 +1,18 @@
+package com.lox;
+
+import java.util.List;
+
+/**
+ * The body of a Lox function compiled to JVM bytecode by the JitCompiler.
+ * Each implementation is a hidden class generated for one declaration.
+ */
+interface JitCode {
+    /**
+     * Runs the function body.
+     * @param interpreter The interpreter, for globals and calls.
+     * @param upvalues The cells captured by the closure being called.
+     * @param arguments The evaluated arguments, one per parameter.
+     * @return The function's return value.
+     */
+    Object call(Interpreter interpreter, Cell[] upvalues, List<Object> arguments);
+}
@@ -0,0 +1,92 @@
+package com.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles hot Lox functions to JVM bytecode, for `--engine=jit`.
+ *
+ * The Interpreter counts calls to each function declaration. When one
+ * gets hot, its body is translated to the source of a Java class (see
+ * JavaEmitter), which is compiled in memory with the JDK's compiler and
+ * loaded as a hidden class (see MethodHandles.Lookup.defineHiddenClass).
+ * From then on the function's calls run that class, which HotSpot
+ * optimizes like any other Java code.
+ *
+ * The class refers to the AST's tokens and strings through an array of
+ * constants, and closures it creates are ordinary LoxFunctions, which
+ * start out interpreted and can get hot in turn.
+ *
+ * If the JDK's compiler isn't available (on a bare JRE) or a function
+ * can't be compiled, it simply stays in the Interpreter.
+ */
+class JitCompiler extends JavaEmitter {
+    // The number of calls after which a function is compiled.
+    static final int THRESHOLD = 1000;
+
+    private List<Object> constants;
+
+    /**
+     * Compiles a function body.
+     * @return The compiled body, or null if it couldn't be compiled.
+     */
+    JitCode compile(Stmt.Function function) {
+        String className = "LoxJit_" + function.name.lexeme;
+        constants = new ArrayList<>();
+
+        try {
+            StringBuilder text = new StringBuilder();
+            text.append("package com.lox;\n\n");
+            text.append("final class ").append(className).append(" implements JitCode {\n");
+            text.append("    private final Object[] k;\n\n");
+            text.append("    ").append(className).append("(Object[] k) { this.k = k; }\n\n");
+            text.append("    @Override\n");
+            text.append("    public Object call(Interpreter interpreter, Cell[] up, java.util.List<Object> args) {\n");
+            text.append(functionBody(function));
+            text.append("    }\n");
+            text.append("}\n");
+
+            Map<String, byte[]> classes = compile(className, text.toString());
+            if (classes == null) return null;
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClass(classes.get("com.lox." + className), true);
+            return (JitCode)lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Object[].class))
+                .invoke(constants.toArray());
+        } catch (Throwable error) {
+            // Anything that can't be emitted, or that the JVM rejects
+            // (such as a method that's too large), just keeps the
+            // function in the Interpreter.
+            return null;
+        }
+    }
+
+    @Override
+    String token(Token token) {
+        return "(Token)k[" + constant(token) + "]";
+    }
+
+    @Override
+    String string(String value) {
+        return "k[" + constant(value) + "]";
+    }
+
+    @Override
+    String closure(Stmt.Function function, String upvalues) {
+        return "new LoxFunction((Stmt.Function)k[" + constant(function) + "], " + upvalues + ")";
+    }
+
+    @Override
+    String globals() {
+        return "interpreter.globals";
+    }
+
+    private int constant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+}
@@ -0,0 +1,131 @@
+package com.lox;
+
+/**
+ * Helpers called by compiled code (see JavaEmitter) for the operations
+ * that need Lox's dynamic type checks. Operations on values already
+ * known to be numbers are compiled inline instead.
+ *
+ * Every error message matches the Interpreter's, and every helper takes
+ * its operands already evaluated, so errors are still reported only
+ * after both sides of an operator have run.
+ */
+final class JitRuntime {
+    private JitRuntime() {}
+
+    static final Cell[] NO_UPVALUES = new Cell[0];
+
+    static Object add(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+        // '+' is overloaded for numbers and strings
+        Object sum = Values.add(left, right);
+        if (sum != null) return sum;
+        throw new RuntimeError(operator,
+            "Operands must be two numbers or two strings.");
+    }
+
+    static double subtract(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left - (double)right;
+    }
+
+    static double multiply(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left * (double)right;
+    }
+
+    static double divide(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return divide(operator, (double)left, (double)right);
+    }
+
+    static double divide(Token operator, double left, double right) {
+        if (right == 0.0) {
+            throw new RuntimeError(operator, "Division by zero.");
+        }
+        return left / right;
+    }
+
+    static boolean less(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left < (double)right;
+    }
+
+    static boolean lessEqual(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left <= (double)right;
+    }
+
+    static boolean greater(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left > (double)right;
+    }
+
+    static boolean greaterEqual(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left >= (double)right;
+    }
+
+    static double negate(Token operator, Object operand) {
+        if (operand instanceof Double) return -(double)operand;
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    static Object assignGlobal(Environment globals, Token name, Object value) {
+        globals.assign(name, value);
+        return value;
+    }
+
+    /**
+     * Calls a value the way Interpreter.visitCallExpr() does.
+     */
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object[] arguments) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable)callee;
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                function.arity() + " arguments but got " +
+                arguments.length + ".");
+        }
+
+        try {
+            switch (arguments.length) {
+                case 0: return function.call0(interpreter);
+                case 1: return function.call1(interpreter, arguments[0]);
+                case 2: return function.call2(interpreter, arguments[0], arguments[1]);
+                case 3: return function.call3(interpreter, arguments[0], arguments[1], arguments[2]);
+                default: return function.callN(interpreter, arguments);
+            }
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+    }
+
+    /**
+     * Makes a call from a 'return'. A Lox function isn't called but
+     * returned as a TailCall, which the caller makes in its place (see
+     * LoxFunction.call() and CompiledFunction.call()).
+     */
+    static Object tailCall(Interpreter interpreter, Token paren, Object callee, Object[] arguments) {
+        if (!(callee instanceof LoxFunction) && !(callee instanceof CompiledFunction)) {
+            return call(interpreter, paren, callee, arguments);
+        }
+
+        LoxCallable function = (LoxCallable)callee;
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                function.arity() + " arguments but got " +
+                arguments.length + ".");
+        }
+        return new TailCall(function, arguments);
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
@@ -0,0 +1,668 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Compiles a resolved AST to a tree of Java lambdas for the lambda engine.
+ *
+ * Every decision the Interpreter makes each time it visits a node is made
+ * here once instead: which operator a Binary applies, which slot or cell a
+ * variable lives in, and how many arguments a call passes. What's left is
+ * a chain of small lambdas that each do only their node's work, with no
+ * visitor dispatch or switches in between.
+ *
+ * Expressions are compiled to one of three shapes:
+ * - Function<Frame, Object> for any value.
+ * - ToDoubleFunction<Frame> for expressions that can only produce a
+ *   number (or fail), such as `a - b`, so nested arithmetic doesn't box.
+ * - Predicate<Frame> for conditions, so `i < n` in a loop doesn't box.
+ */
+class LambdaCompiler implements Expr.Visitor<Function<Frame, Object>>, Stmt.Visitor<LambdaCompiler.Action> {
+    private static final Cell[] NO_UPVALUES = new Cell[0];
+
+    /**
+     * A compiled statement.
+     */
+    interface Action {
+        /**
+         * Runs the statement in 'frame'.
+         * @return true if a 'return' statement ran, in which case the
+         *         value is in frame.returnValue and the caller must stop.
+         */
+        boolean execute(Frame frame);
+    }
+
+    private final Environment globals;
+
+    LambdaCompiler(Environment globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * Main entry point. Compiles a list of statements into one action.
+     */
+    Action compile(List<Stmt> statements) {
+        Action[] actions = new Action[statements.size()];
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = statements.get(i).accept(this);
+        }
+
+        switch (actions.length) {
+            case 0:
+                return f -> false;
+            case 1:
+                return actions[0];
+            default:
+                return f -> {
+                    for (Action action : actions) {
+                        if (action.execute(f)) return true;
+                    }
+                    return false;
+                };
+        }
+    }
+
+    private Function<Frame, Object> compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    // --- Statement Visitor Implementations ---
+
+    @Override
+    public Action visitBlockStmt(Stmt.Block stmt) {
+        return compile(stmt.statements);
+    }
+
+    @Override
+    public Action visitExpressionStmt(Stmt.Expression stmt) {
+        Function<Frame, Object> expression = compile(stmt.expression);
+        return f -> {
+            expression.apply(f);
+            return false;
+        };
+    }
+
+    @Override
+    public Action visitFunctionStmt(Stmt.Function stmt) {
+        Action body = compile(stmt.body);
+        int slot = stmt.slot;
+
+        if (slot < 0) {
+            Symbol name = stmt.name.symbol;
+            return f -> {
+                globals.define(name, new LambdaFunction(stmt, body, captureUpvalues(stmt, f)));
+                return false;
+            };
+        }
+        if (stmt.captured) {
+            return f -> {
+                // Made empty first: the closure may refer to itself.
+                Cell cell = new Cell(null);
+                f.slots[slot] = cell;
+                cell.value = new LambdaFunction(stmt, body, captureUpvalues(stmt, f));
+                return false;
+            };
+        }
+        return f -> {
+            f.slots[slot] = new LambdaFunction(stmt, body, captureUpvalues(stmt, f));
+            return false;
+        };
+    }
+
+    @Override
+    public Action visitIfStmt(Stmt.If stmt) {
+        Predicate<Frame> condition = compileCondition(stmt.condition);
+        Action thenBranch = stmt.thenBranch.accept(this);
+
+        if (stmt.elseBranch == null) {
+            return f -> condition.test(f) && thenBranch.execute(f);
+        }
+        Action elseBranch = stmt.elseBranch.accept(this);
+        return f -> condition.test(f) ? thenBranch.execute(f) : elseBranch.execute(f);
+    }
+
+    @Override
+    public Action visitPrintStmt(Stmt.Print stmt) {
+        Function<Frame, Object> expression = compile(stmt.expression);
+        return f -> {
+            System.out.println(Values.stringify(expression.apply(f)));
+            return false;
+        };
+    }
+
+    @Override
+    public Action visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return f -> {
+                f.returnValue = null;
+                return true;
+            };
+        }
+        if (stmt.tailCall) return tailCall((Expr.Call)stmt.value);
+
+        Function<Frame, Object> value = compile(stmt.value);
+        return f -> {
+            f.returnValue = value.apply(f);
+            return true;
+        };
+    }
+
+    /**
+     * Compiles a 'return' of a call. A call to a compiled Lox function
+     * is returned as a TailCall for LambdaFunction.invoke() to make in
+     * place of this one; natives are called directly.
+     */
+    private Action tailCall(Expr.Call expr) {
+        Function<Frame, Object> callee = compile(expr.callee);
+        List<Function<Frame, Object>> args = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            args.add(compile(argument));
+        }
+        Token paren = expr.paren;
+        return f -> {
+            Object function = callee.apply(f);
+            Object[] values = new Object[args.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = args.get(i).apply(f);
+            }
+            if (function instanceof LambdaFunction) {
+                LambdaFunction lambda = checkArity(paren, (LambdaFunction)function, values.length);
+                f.returnValue = new TailCall(lambda, values);
+            } else {
+                f.returnValue = callNative(paren, function, values);
+            }
+            return true;
+        };
+    }
+
+    @Override
+    public Action visitLetStmt(Stmt.Let stmt) {
+        Function<Frame, Object> initializer = stmt.initializer != null
+            ? compile(stmt.initializer) : f -> null;
+        int slot = stmt.slot;
+
+        if (slot < 0) {
+            Symbol name = stmt.name.symbol;
+            return f -> {
+                globals.define(name, initializer.apply(f));
+                return false;
+            };
+        }
+        if (stmt.captured) {
+            // A fresh Cell each time, so closures made in a loop don't share it.
+            return f -> {
+                f.slots[slot] = new Cell(initializer.apply(f));
+                return false;
+            };
+        }
+        return f -> {
+            f.slots[slot] = initializer.apply(f);
+            return false;
+        };
+    }
+
+    @Override
+    public Action visitWhileStmt(Stmt.While stmt) {
+        Predicate<Frame> condition = compileCondition(stmt.condition);
+        Action body = stmt.body.accept(this);
+        return f -> {
+            while (condition.test(f)) {
+                if (body.execute(f)) return true;
+            }
+            return false;
+        };
+    }
+
+    // --- Expression Visitor Implementations ---
+
+    @Override
+    public Function<Frame, Object> visitAssignExpr(Expr.Assign expr) {
+        Function<Frame, Object> value = compile(expr.value);
+        int slot = expr.slot;
+
+        switch (expr.binding) {
+            case LOCAL:
+                return f -> f.slots[slot] = value.apply(f);
+            case CELL:
+                return f -> ((Cell)f.slots[slot]).value = value.apply(f);
+            case UPVALUE:
+                return f -> f.upvalues[slot].value = value.apply(f);
+            default: {
+                Token name = expr.name;
+                return f -> {
+                    Object result = value.apply(f);
+                    globals.assign(name, result);
+                    return result;
+                };
+            }
+        }
+    }
+
+    @Override
+    public Function<Frame, Object> visitBinaryExpr(Expr.Binary expr) {
+        if (isNumber(expr)) {
+            ToDoubleFunction<Frame> number = compileNumber(expr);
+            return f -> number.applyAsDouble(f);
+        }
+        if (isComparison(expr)) {
+            Predicate<Frame> test = compileCondition(expr);
+            return f -> test.test(f);
+        }
+
+        Function<Frame, Object> left = compile(expr.left);
+        Function<Frame, Object> right = compile(expr.right);
+        Token operator = expr.operator;
+        switch (operator.type) {
+            case PLUS:
+                return f -> {
+                    Object a = left.apply(f);
+                    Object b = right.apply(f);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double)a + (double)b;
+                    }
+                    // '+' is overloaded for numbers and strings
+                    Object sum = Values.add(a, b);
+                    if (sum != null) return sum;
+                    throw new RuntimeError(operator,
+                        "Operands must be two numbers or two strings.");
+                };
+            case BANG_EQUAL:
+                return f -> !Values.isEqual(left.apply(f), right.apply(f));
+            default:
+                return f -> Values.isEqual(left.apply(f), right.apply(f));
+        }
+    }
+
+    @Override
+    public Function<Frame, Object> visitCallExpr(Expr.Call expr) {
+        Function<Frame, Object> callee = compile(expr.callee);
+        Token paren = expr.paren;
+
+        // The argument count is fixed at each call site, so the common
+        // counts bind their arguments without building a list.
+        switch (expr.arguments.size()) {
+            case 0:
+                return f -> {
+                    Object function = callee.apply(f);
+                    if (function instanceof LambdaFunction) {
+                        LambdaFunction lambda = checkArity(paren, (LambdaFunction)function, 0);
+                        return invoke(paren, lambda, lambda.newFrame());
+                    }
+                    return callNative(paren, function);
+                };
+            case 1: {
+                Function<Frame, Object> arg0 = compile(expr.arguments.get(0));
+                return f -> {
+                    Object function = callee.apply(f);
+                    Object a0 = arg0.apply(f);
+                    if (function instanceof LambdaFunction) {
+                        LambdaFunction lambda = checkArity(paren, (LambdaFunction)function, 1);
+                        Frame frame = lambda.newFrame();
+                        frame.slots[0] = a0;
+                        return invoke(paren, lambda, frame);
+                    }
+                    return callNative(paren, function, a0);
+                };
+            }
+            case 2: {
+                Function<Frame, Object> arg0 = compile(expr.arguments.get(0));
+                Function<Frame, Object> arg1 = compile(expr.arguments.get(1));
+                return f -> {
+                    Object function = callee.apply(f);
+                    Object a0 = arg0.apply(f);
+                    Object a1 = arg1.apply(f);
+                    if (function instanceof LambdaFunction) {
+                        LambdaFunction lambda = checkArity(paren, (LambdaFunction)function, 2);
+                        Frame frame = lambda.newFrame();
+                        frame.slots[0] = a0;
+                        frame.slots[1] = a1;
+                        return invoke(paren, lambda, frame);
+                    }
+                    return callNative(paren, function, a0, a1);
+                };
+            }
+            default: {
+                List<Function<Frame, Object>> args = new ArrayList<>();
+                for (Expr argument : expr.arguments) {
+                    args.add(compile(argument));
+                }
+                return f -> {
+                    Object function = callee.apply(f);
+                    Object[] values = new Object[args.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = args.get(i).apply(f);
+                    }
+                    if (function instanceof LambdaFunction) {
+                        LambdaFunction lambda = checkArity(paren, (LambdaFunction)function, values.length);
+                        Frame frame = lambda.newFrame();
+                        System.arraycopy(values, 0, frame.slots, 0, values.length);
+                        return invoke(paren, lambda, frame);
+                    }
+                    return callNative(paren, function, values);
+                };
+            }
+        }
+    }
+
+    @Override
+    public Function<Frame, Object> visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Function<Frame, Object> visitInlineExpr(Expr.Inline expr) {
+        // Compiled code always makes the call.
+        return compile(expr.call);
+    }
+
+    @Override
+    public Function<Frame, Object> visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return f -> value;
+    }
+
+    @Override
+    public Function<Frame, Object> visitLogicalExpr(Expr.Logical expr) {
+        Function<Frame, Object> left = compile(expr.left);
+        Function<Frame, Object> right = compile(expr.right);
+
+        // Handle short-circuiting
+        if (expr.operator.type == TokenType.OR) {
+            return f -> {
+                Object value = left.apply(f);
+                return Values.isTruthy(value) ? value : right.apply(f);
+            };
+        }
+        return f -> {
+            Object value = left.apply(f);
+            return Values.isTruthy(value) ? right.apply(f) : value;
+        };
+    }
+
+    @Override
+    public Function<Frame, Object> visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS) {
+            ToDoubleFunction<Frame> number = compileNumber(expr);
+            return f -> number.applyAsDouble(f);
+        }
+        Predicate<Frame> test = compileCondition(expr);
+        return f -> test.test(f);
+    }
+
+    @Override
+    public Function<Frame, Object> visitVariableExpr(Expr.Variable expr) {
+        int slot = expr.slot;
+        switch (expr.binding) {
+            case LOCAL:
+                return f -> f.slots[slot];
+            case CELL:
+                return f -> ((Cell)f.slots[slot]).value;
+            case UPVALUE:
+                return f -> f.upvalues[slot].value;
+            default: {
+                Token name = expr.name;
+                return f -> globals.get(name);
+            }
+        }
+    }
+
+    // --- Unboxed Compilation ---
+
+    /**
+     * Checks whether an expression always produces a number when it
+     * succeeds, so it can be compiled with compileNumber().
+     */
+    private static boolean isNumber(Expr expr) {
+        if (expr instanceof Expr.Grouping) return isNumber(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Double;
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary)expr).operator.type == TokenType.MINUS;
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return true;
+                case PLUS:
+                    // Only if neither side can be a string.
+                    return isNumber(binary.left) && isNumber(binary.right);
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isComparison(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Compiles an expression for which isNumber() holds.
+     *
+     * When both operands are known to be numbers they are combined
+     * without boxing. Otherwise both are evaluated as objects first, so
+     * a type error is reported only after both sides have run, exactly
+     * as in the Interpreter.
+     */
+    private ToDoubleFunction<Frame> compileNumber(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            return compileNumber(((Expr.Grouping)expr).expression);
+        }
+        if (expr instanceof Expr.Literal) {
+            double value = (double)((Expr.Literal)expr).value;
+            return f -> value;
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            if (isNumber(unary.right)) {
+                ToDoubleFunction<Frame> right = compileNumber(unary.right);
+                return f -> -right.applyAsDouble(f);
+            }
+            Function<Frame, Object> right = compile(unary.right);
+            Token operator = unary.operator;
+            return f -> {
+                Object value = right.apply(f);
+                if (!(value instanceof Double)) {
+                    throw new RuntimeError(operator, "Operand must be a number.");
+                }
+                return -(double)value;
+            };
+        }
+
+        Expr.Binary binary = (Expr.Binary)expr;
+        Token operator = binary.operator;
+        if (isNumber(binary.left) && isNumber(binary.right)) {
+            ToDoubleFunction<Frame> left = compileNumber(binary.left);
+            ToDoubleFunction<Frame> right = compileNumber(binary.right);
+            switch (operator.type) {
+                case PLUS:  return f -> left.applyAsDouble(f) + right.applyAsDouble(f);
+                case MINUS: return f -> left.applyAsDouble(f) - right.applyAsDouble(f);
+                case STAR:  return f -> left.applyAsDouble(f) * right.applyAsDouble(f);
+                default:
+                    return f -> {
+                        double dividend = left.applyAsDouble(f);
+                        double divisor = right.applyAsDouble(f);
+                        if (divisor == 0.0) {
+                            throw new RuntimeError(operator, "Division by zero.");
+                        }
+                        return dividend / divisor;
+                    };
+            }
+        }
+
+        Function<Frame, Object> left = compile(binary.left);
+        Function<Frame, Object> right = compile(binary.right);
+        switch (operator.type) {
+            case MINUS:
+                return f -> {
+                    Object a = left.apply(f);
+                    Object b = right.apply(f);
+                    checkNumberOperands(operator, a, b);
+                    return (double)a - (double)b;
+                };
+            case STAR:
+                return f -> {
+                    Object a = left.apply(f);
+                    Object b = right.apply(f);
+                    checkNumberOperands(operator, a, b);
+                    return (double)a * (double)b;
+                };
+            default:
+                return f -> {
+                    Object a = left.apply(f);
+                    Object b = right.apply(f);
+                    checkNumberOperands(operator, a, b);
+                    if ((double)b == 0.0) {
+                        throw new RuntimeError(operator, "Division by zero.");
+                    }
+                    return (double)a / (double)b;
+                };
+        }
+    }
+
+    /**
+     * Compiles an expression whose truthiness is all that's needed.
+     * Comparisons and '!' produce a primitive boolean directly.
+     */
+    private Predicate<Frame> compileCondition(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping)expr).expression;
+        }
+
+        if (expr instanceof Expr.Unary && ((Expr.Unary)expr).operator.type == TokenType.BANG) {
+            Predicate<Frame> right = compileCondition(((Expr.Unary)expr).right);
+            return f -> !right.test(f);
+        }
+
+        if (expr instanceof Expr.Binary && isComparison((Expr.Binary)expr)) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            Token operator = binary.operator;
+            if (isNumber(binary.left) && isNumber(binary.right)) {
+                ToDoubleFunction<Frame> left = compileNumber(binary.left);
+                ToDoubleFunction<Frame> right = compileNumber(binary.right);
+                switch (operator.type) {
+                    case LESS:       return f -> left.applyAsDouble(f) < right.applyAsDouble(f);
+                    case LESS_EQUAL: return f -> left.applyAsDouble(f) <= right.applyAsDouble(f);
+                    case GREATER:    return f -> left.applyAsDouble(f) > right.applyAsDouble(f);
+                    default:         return f -> left.applyAsDouble(f) >= right.applyAsDouble(f);
+                }
+            }
+
+            Function<Frame, Object> left = compile(binary.left);
+            Function<Frame, Object> right = compile(binary.right);
+            switch (operator.type) {
+                case LESS:
+                    return f -> {
+                        Object a = left.apply(f);
+                        Object b = right.apply(f);
+                        checkNumberOperands(operator, a, b);
+                        return (double)a < (double)b;
+                    };
+                case LESS_EQUAL:
+                    return f -> {
+                        Object a = left.apply(f);
+                        Object b = right.apply(f);
+                        checkNumberOperands(operator, a, b);
+                        return (double)a <= (double)b;
+                    };
+                case GREATER:
+                    return f -> {
+                        Object a = left.apply(f);
+                        Object b = right.apply(f);
+                        checkNumberOperands(operator, a, b);
+                        return (double)a > (double)b;
+                    };
+                default:
+                    return f -> {
+                        Object a = left.apply(f);
+                        Object b = right.apply(f);
+                        checkNumberOperands(operator, a, b);
+                        return (double)a >= (double)b;
+                    };
+            }
+        }
+
+        Function<Frame, Object> value = compile(expr);
+        return f -> Values.isTruthy(value.apply(f));
+    }
+
+    // --- Runtime Helper Methods ---
+
+    /**
+     * Collects the cells a new closure captures from the frame it is
+     * created in.
+     */
+    private static Cell[] captureUpvalues(Stmt.Function declaration, Frame frame) {
+        if (declaration.upvalues.length == 0) return NO_UPVALUES;
+
+        Cell[] cells = new Cell[declaration.upvalues.length];
+        for (int i = 0; i < cells.length; i++) {
+            Upvalue upvalue = declaration.upvalues[i];
+            if (upvalue.isLocal) {
+                cells[i] = (Cell)frame.slots[upvalue.index];
+            } else {
+                cells[i] = frame.upvalues[upvalue.index];
+            }
+        }
+        return cells;
+    }
+
+    private static LambdaFunction checkArity(Token paren, LambdaFunction function, int argCount) {
+        if (argCount != function.arity) {
+            throw new RuntimeError(paren, "Expected " +
+                function.arity + " arguments but got " + argCount + ".");
+        }
+        return function;
+    }
+
+    /**
+     * Runs a compiled Lox function whose arguments are bound in 'frame'.
+     */
+    private static Object invoke(Token paren, LambdaFunction function, Frame frame) {
+        try {
+            return function.invoke(frame);
+        } catch (StackOverflowError error) {
+            // Each Lox call takes several Java frames, so deep recursion
+            // can run out of Java stack.
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+    }
+
+    /**
+     * Calls anything that isn't a compiled Lox function, such as a native.
+     */
+    private static Object callNative(Token paren, Object callee, Object... arguments) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable)callee;
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                function.arity() + " arguments but got " + arguments.length + ".");
+        }
+        // Natives don't use the interpreter argument, so there is none to pass.
+        return function.call(null, Arrays.asList(arguments));
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
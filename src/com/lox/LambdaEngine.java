@@ -0,0 +1,30 @@
+package com.lox;
+
+import java.util.List;
+
+/**
+ * Runs programs compiled to Java lambdas by the LambdaCompiler,
+ * selected with `--engine=lambda`.
+ *
+ * The compiled tree has no interpretive overhead of its own, so the
+ * JVM's JIT can inline each call site's chain of lambdas.
+ */
+class LambdaEngine implements Engine {
+    private static final Cell[] NO_UPVALUES = new Cell[0];
+
+    final Environment globals = new Environment();
+
+    LambdaEngine() {
+        Natives.define(globals);
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements, int frameSize) {
+        LambdaCompiler.Action program = new LambdaCompiler(globals).compile(statements);
+        try {
+            program.execute(new Frame(frameSize, NO_UPVALUES));
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.lox;
+
+import java.util.List;
+
+/**
+ * The runtime representation of a user-defined function in the lambda
+ * engine: its compiled body plus the cells it captured.
+ */
+class LambdaFunction implements LoxCallable {
+    final Stmt.Function declaration;
+    final int arity;
+    private final LambdaCompiler.Action body;
+    private final Cell[] upvalues;
+
+    LambdaFunction(Stmt.Function declaration, LambdaCompiler.Action body, Cell[] upvalues) {
+        this.declaration = declaration;
+        this.arity = declaration.params.size();
+        this.body = body;
+        this.upvalues = upvalues;
+    }
+
+    /**
+     * Creates an empty frame for a call. The caller stores the
+     * arguments in its first slots and then calls invoke().
+     */
+    Frame newFrame() {
+        return new Frame(declaration.frameSize, upvalues);
+    }
+
+    /**
+     * Runs the body in a frame whose parameters have been bound.
+     *
+     * This is also the trampoline for tail calls: a body that returns a
+     * TailCall has the callee run next in this loop, in a new frame, so
+     * tail-recursive functions run in constant Java stack space.
+     */
+    Object invoke(Frame frame) {
+        LambdaFunction function = this;
+        for (;;) {
+            for (int slot : function.declaration.capturedParams) {
+                frame.slots[slot] = new Cell(frame.slots[slot]);
+            }
+            // If the function completes without a 'return', it implicitly returns 'nil'.
+            if (!function.body.execute(frame)) return null;
+            if (!(frame.returnValue instanceof TailCall)) return frame.returnValue;
+
+            TailCall tail = (TailCall)frame.returnValue;
+            function = (LambdaFunction)tail.callee;
+            frame = function.newFrame();
+            System.arraycopy(tail.arguments, 0, frame.slots, 0, tail.arguments.length);
+        }
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        Frame frame = newFrame();
+        for (int i = 0; i < arguments.size(); i++) {
+            frame.slots[i] = arguments.get(i);
+        }
+        return invoke(frame);
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration.name.lexeme + ">";
+    }
+}
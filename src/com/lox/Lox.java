@@ -17,24 +17,114 @@ public class Lox {
     // This prevents executing code that has known errors.
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
-
-    // The interpreter instance that will execute the code.
-    private static final Interpreter interpreter = new Interpreter();
+    // Whether runtime errors also print the Lox call stack, for engines
+    // that keep one (`--stack-trace`).
+    static boolean stackTraces = false;
+    // How many results each pure function's memo cache keeps, or 0 not
+    // to memoize (`--memoize`).
+    private static int memoSize = 0;
+    private static final int DEFAULT_MEMO_SIZE = 10000;
+
+    // The engine that will execute the code. The tree-walking
+    // Interpreter is the default; see selectEngine() for the others.
+    private static Engine engine;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
+        // Leading "--" arguments are options; what remains is the script.
+        int first = 0;
+        String engineName = "interpreter";
+        String compileTo = null;
+        long stackSize = VM.DEFAULT_STACK_SIZE;
+        while (first < args.length && args[first].startsWith("--")) {
+            String option = args[first++];
+            if (option.startsWith("--engine=")) {
+                engineName = option.substring("--engine=".length());
+            } else if (option.startsWith("--compile=")) {
+                compileTo = option.substring("--compile=".length());
+            } else if (option.startsWith("--stack-size=")) {
+                stackSize = parseSize(option.substring("--stack-size=".length()));
+                if (stackSize <= 0) usage();
+            } else if (option.equals("--stack-trace")) {
+                stackTraces = true;
+            } else if (option.equals("--memoize")) {
+                memoSize = DEFAULT_MEMO_SIZE;
+            } else if (option.startsWith("--memoize=")) {
+                memoSize = (int)Math.min(parseSize(option.substring("--memoize=".length())),
+                    Integer.MAX_VALUE);
+                if (memoSize <= 0) usage();
+            } else {
+                usage();
+            }
+        }
+
+        engine = selectEngine(engineName, stackSize);
+        if (engine == null) usage();
+
+        if (compileTo != null) {
+            // Compile the script ahead of time instead of running it.
+            if (args.length - first != 1) usage();
+            engine = new AotCompiler(Paths.get(compileTo), args[first]);
+        }
+
+        if (args.length - first > 1) {
             // Invalid usage
-            System.out.println("Usage: jlox [script]");
-            System.exit(64); 
-        } else if (args.length == 1) {
+            usage();
+        } else if (args.length - first == 1) {
             // Run from a source file
-            runFile(args[0]);
+            runFile(args[first]);
         } else {
             // Run the interactive prompt (REPL)
             runPrompt();
         }
     }
 
+    /**
+     * Creates the execution engine with the given name.
+     * @param stackSize The memory limit for the VM's call stack, in bytes.
+     * @return The engine, or null if the name isn't recognized.
+     */
+    private static Engine selectEngine(String name, long stackSize) {
+        switch (name) {
+            case "interpreter": return new Interpreter();
+            case "vm":          return new VM(stackSize);
+            case "nanbox":      return new NanBoxVM(stackSize);
+            case "register":    return new RegisterVM();
+            case "lambda":      return new LambdaEngine();
+            case "jit":         return new Interpreter(true);
+            default:            return null;
+        }
+    }
+
+    /**
+     * Parses a size in bytes, like "512m": a number with an optional
+     * k, m or g suffix.
+     * @return The size, or -1 if it isn't one.
+     */
+    private static long parseSize(String text) {
+        long unit = 1;
+        if (!text.isEmpty()) {
+            switch (Character.toLowerCase(text.charAt(text.length() - 1))) {
+                case 'k': unit = 1L << 10; break;
+                case 'm': unit = 1L << 20; break;
+                case 'g': unit = 1L << 30; break;
+            }
+            if (unit != 1) text = text.substring(0, text.length() - 1);
+        }
+        try {
+            return Long.parseLong(text) * unit;
+        } catch (NumberFormatException error) {
+            return -1;
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=interpreter|vm|nanbox|register|lambda|jit] [script]");
+        System.out.println("       jlox --compile=<output.jar|directory> script");
+        System.out.println("Options for the vm and nanbox engines: --stack-size=<bytes>[k|m|g] --stack-trace");
+        System.out.println("Options for the interpreter and jit engines: --memoize[=<entries>]");
+        System.exit(64);
+    }
+
     /**
      * Reads a source file and executes it.
      * @param path The path to the source file.
@@ -72,7 +162,7 @@ public class Lox {
      */
     private static void run(String source) {
         // 1. Scanner (Lexer): String -> List<Token>
-        Scanner scanner = new Scanner(source);
+        Scanner scanner = new Scanner(source, engine.integers());
         List<Token> tokens = scanner.scanTokens();
 
         // 2. Parser: List<Token> -> List<Stmt> (AST)
@@ -82,8 +172,24 @@ public class Lox {
         // Stop if there was a syntax (parse) error.
         if (hadError) return;
 
-        // 3. Interpreter: List<Stmt> -> Execution
-        interpreter.interpret(statements);
+        // 3. Resolver: annotates variable references with their slots
+        //    and works out the size of the top-level frame.
+        Resolver resolver = new Resolver();
+        int frameSize = resolver.resolve(statements);
+
+        // Stop if there was a resolution error.
+        if (hadError) return;
+
+        // 4. Optimizer: folds constants and removes dead branches.
+        //    Hoisting from loops can add slots to the frame.
+        frameSize = new Optimizer().optimize(statements, frameSize);
+
+        // Optionally, find the pure functions so their calls can be
+        // memoized.
+        if (memoSize > 0) new EffectAnalyzer().analyze(statements, memoSize);
+
+        // 5. Engine: List<Stmt> -> Execution
+        engine.interpret(statements, frameSize);
     }
 
     // --- Error Reporting ---
@@ -103,7 +209,12 @@ public class Lox {
      */
     static void runtimeError(RuntimeError error) {
         System.err.println(error.getMessage() +
-            "\n[line " + error.token.line + "]");
+            "\n[line " + error.line + "]");
+        if (stackTraces && error.trace != null) {
+            for (String call : error.trace) {
+                System.err.println("  " + call);
+            }
+        }
         hadRuntimeError = true;
     }
 
@@ -1,5 +1,7 @@
 package com.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -19,4 +21,31 @@ interface LoxCallable {
      * @return The return value of the call.
      */
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // Fixed-arity entry points. The Interpreter picks one for each call
+    // site with up to three arguments, so callables that override them
+    // avoid building an argument list. By default they build one.
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object arg0) {
+        return call(interpreter, Collections.singletonList(arg0));
+    }
+
+    default Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        return call(interpreter, Arrays.asList(arg0, arg1));
+    }
+
+    default Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+        return call(interpreter, Arrays.asList(arg0, arg1, arg2));
+    }
+
+    /**
+     * The fallback for calls with any number of arguments.
+     */
+    default Object callN(Interpreter interpreter, Object... arguments) {
+        return call(interpreter, Arrays.asList(arguments));
+    }
 }
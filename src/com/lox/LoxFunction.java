@@ -1,17 +1,20 @@
 package com.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * The runtime representation of a user-defined function.
  */
 class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure; // The environment where the function was *defined*
+    final Stmt.Function declaration;
+    // The captured variables this closure shares with the scopes it was
+    // *defined* in. Only variables the body actually uses are kept alive.
+    final Cell[] upvalues;
 
-    LoxFunction(Stmt.Function declaration, Environment closure) {
+    LoxFunction(Stmt.Function declaration, Cell[] upvalues) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
     }
 
     @Override
@@ -21,27 +24,69 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        // 1. Create a new environment for the function's *execution*
-        //    This environment is nested inside the function's *closure*.
-        Environment environment = new Environment(closure);
-
-        // 2. Bind the arguments to the parameters in this new environment
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme,
-                arguments.get(i));
+        // The interpreter pushes a frame for the parameters and the body's
+        // locals, binds the arguments into it and executes the body.
+        if (interpreter.jit == null) return interpreter.executeCall(this, arguments);
+
+        // With the JIT enabled, compiled code (and interpreted code calling
+        // compiled code) hands tail calls back as a TailCall, to be made
+        // here in a loop.
+        LoxFunction function = this;
+        for (;;) {
+            JitCode compiled = function.compiled(interpreter);
+            Object result = compiled != null
+                ? compiled.call(interpreter, function.upvalues, arguments)
+                : interpreter.executeCall(function, arguments);
+            if (!(result instanceof TailCall)) return result;
+
+            TailCall tail = (TailCall)result;
+            function = (LoxFunction)tail.callee;
+            arguments = Arrays.asList(tail.arguments);
         }
+    }
 
-        // 3. Execute the function body in this new environment
-        //    We use a try-catch to "catch" the 'return' exception.
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            // This is the normal 'return' path
-            return returnValue.value;
+    /**
+     * Counts a call, for the JIT. A function that gets called often
+     * enough is compiled to JVM bytecode, shared by all of its closures.
+     * @return The compiled body, or null if it isn't compiled.
+     */
+    JitCode compiled(Interpreter interpreter) {
+        // (Memoized functions stay in the Interpreter, which keeps their cache.)
+        if (declaration.compiled == null && declaration.memo == null &&
+                ++declaration.calls == JitCompiler.THRESHOLD) {
+            declaration.compiled = interpreter.jit.compile(declaration);
         }
+        return declaration.compiled;
+    }
+
+    // The fixed-arity calls bind the arguments straight into the frame.
+    // With the JIT enabled they go through call(), which does the
+    // counting and runs compiled code.
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (interpreter.jit != null) return LoxCallable.super.call0(interpreter);
+        return interpreter.executeCall0(this);
+    }
 
-        // If the function completes without a 'return', it implicitly returns 'nil'.
-        return null;
+    @Override
+    public Object call1(Interpreter interpreter, Object arg0) {
+        if (interpreter.jit != null) return LoxCallable.super.call1(interpreter, arg0);
+        return interpreter.executeCall1(this, arg0);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        if (interpreter.jit != null) return LoxCallable.super.call2(interpreter, arg0, arg1);
+        return interpreter.executeCall2(this, arg0, arg1);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+        if (interpreter.jit != null) {
+            return LoxCallable.super.call3(interpreter, arg0, arg1, arg2);
+        }
+        return interpreter.executeCall3(this, arg0, arg1, arg2);
     }
 
     @Override
@@ -0,0 +1,42 @@
+package com.lox;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results of a pure function's calls, by argument values, for
+ * `--memoize` (see EffectAnalyzer). Only the most recently used results
+ * are kept, so the cache stays bounded.
+ */
+class MemoCache extends LinkedHashMap<List<Object>, Object> {
+    private static final long serialVersionUID = 1L;
+
+    // Returned by lookup() for calls that aren't cached, since 'nil' is
+    // a result like any other.
+    static final Object MISSING = new Object();
+
+    private final int capacity;
+    // The version of the globals the results were computed with (see
+    // Environment.version). Redefining a global, as the REPL can,
+    // throws them all away.
+    int version = -1;
+
+    MemoCache(int capacity) {
+        super(16, 0.75f, true); // Access order, for LRU eviction
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the result of an earlier call with the same arguments,
+     * or MISSING.
+     */
+    Object lookup(List<Object> arguments) {
+        return getOrDefault(arguments, MISSING);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+        return size() > capacity;
+    }
+}
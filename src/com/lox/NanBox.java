@@ -0,0 +1,90 @@
+package com.lox;
+
+/**
+ * The value representation of the NaN-boxing VM (see NanBoxVM), which
+ * packs every Lox value into a long so numbers are never boxed.
+ *
+ * A double has 2^51 or so quiet NaN bit patterns, and arithmetic only
+ * ever produces one of them. A number is stored as its own bits, with
+ * any NaN made the canonical one (as Double.doubleToLongBits() does), and
+ * the other values use NaNs that no number can have:
+ *
+ *     number      any bits, except those starting with TAG
+ *     nil         TAG | 1
+ *     false       TAG | 2
+ *     true        TAG | 3
+ *     reference   TAG | 4
+ *
+ * A reference (a string, a function or a Cell) doesn't fit in a long, so
+ * the object itself is kept in a side table: every long slot of the VM's
+ * stack has a slot in an Object array beside it, which holds the object
+ * while the long is REF.
+ */
+final class NanBox {
+    private NanBox() {}
+
+    // A quiet NaN with one more bit set than the canonical NaN
+    // (0x7ff8000000000000), so it can't be confused with a number.
+    static final long TAG = 0x7ffc000000000000L;
+    static final long NIL = TAG | 1;
+    static final long FALSE = TAG | 2;
+    static final long TRUE = TAG | 3;
+    static final long REF = TAG | 4;
+
+    static long number(double value) {
+        return Double.doubleToLongBits(value);
+    }
+
+    static boolean isNumber(long value) {
+        return (value & TAG) != TAG;
+    }
+
+    static double asNumber(long value) {
+        return Double.longBitsToDouble(value);
+    }
+
+    static long bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    /**
+     * Lox's truthiness: 'false' and 'nil' are falsey, everything else
+     * is truthy.
+     */
+    static boolean isTruthy(long value) {
+        return value != FALSE && value != NIL;
+    }
+
+    /**
+     * Lox's equality. Two numbers are equal when their (canonical) bits
+     * are, just like Double.equals(), so NaN equals itself and 0 doesn't
+     * equal -0, as in the other engines.
+     */
+    static boolean isEqual(long left, Object leftRef, long right, Object rightRef) {
+        if (left == REF && right == REF) return Values.isEqual(leftRef, rightRef);
+        return left == right;
+    }
+
+    /**
+     * Converts a value to its usual representation (see Values), for
+     * globals, cells and natives, which are shared with the other engines.
+     * @param ref The value's side table entry.
+     */
+    static Object box(long value, Object ref) {
+        if (isNumber(value)) return asNumber(value);
+        if (value == REF) return ref;
+        if (value == NIL) return null;
+        return value == TRUE;
+    }
+
+    /**
+     * Converts a value from its usual representation. A reference comes
+     * out as REF, and the object itself goes in the side table.
+     */
+    static long unbox(Object object) {
+        if (object instanceof Double) return number((double)object);
+        if (object == null) return NIL;
+        if (object instanceof Boolean) return bool((boolean)object);
+        return REF;
+    }
+}
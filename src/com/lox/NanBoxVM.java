@@ -0,0 +1,380 @@
+package com.lox;
+
+import java.util.Arrays;
+
+/**
+ * A variant of the stack VM whose values are NaN-boxed longs (see
+ * NanBox), selected with `--engine=nanbox`. It runs the same bytecode,
+ * from the same Compiler, with the same frames; only run() and the
+ * value representation are its own.
+ *
+ * The value stack is a long[], so arithmetic, comparisons and locals
+ * don't allocate: a number is only boxed into a Double when it leaves
+ * the stack, for a global, a captured variable or a native function.
+ * References live in a second array, the side table, at the same index
+ * as their REF value; that's the VM's own stack array. An entry is only meaningful while its value is REF:
+ * copying a number leaves whatever was beside its new slot, which is
+ * cleared when the frame returns.
+ */
+class NanBoxVM extends VM {
+    // The approximate cost of a stack slot (a long and a reference), in
+    // bytes, for checking the stack size.
+    private static final int SLOT_SIZE = 16;
+
+    private long[] values = new long[1024];
+
+    /**
+     * @param maxStackSize The most memory, in bytes, the Lox stack may
+     *                     use before a call fails with "Stack overflow."
+     */
+    NanBoxVM(long maxStackSize) {
+        super(maxStackSize, SLOT_SIZE);
+        // Slot 0 holds the script's closure (see VM.interpret()).
+        values[0] = NanBox.REF;
+    }
+
+    @Override
+    void ensureCapacity(int size) {
+        super.ensureCapacity(size);
+        if (stack.length > values.length) values = Arrays.copyOf(values, stack.length);
+    }
+
+    @Override
+    Object value(int slot) {
+        return NanBox.box(values[slot], stack[slot]);
+    }
+
+    @Override
+    CallFrame pushFrame(Closure closure, int base) {
+        CallFrame frame = super.pushFrame(closure, base);
+        // Boxed parameters are now Cells in the side table.
+        for (int slot : closure.prototype.capturedParams) {
+            values[base + slot] = NanBox.REF;
+        }
+        return frame;
+    }
+
+    /**
+     * The main dispatch loop. Runs until the script's frame returns.
+     *
+     * As in the stack VM, the state of the running frame is kept in local
+     * variables and written back to its CallFrame only when making a call.
+     */
+    @Override
+    void run() {
+        CallFrame frame = frames[frameCount - 1];
+        long[] stack = values;
+        Object[] refs = this.stack;
+        byte[] code = frame.closure.prototype.chunk.code;
+        Object[] constants = frame.closure.prototype.chunk.constants;
+        Cell[] upvalues = frame.closure.upvalues;
+        int base = frame.base;
+        int ip = 0;
+        // The operand stack starts just above the frame's locals.
+        int sp = base + frame.closure.prototype.frameSize;
+
+        for (;;) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case OpCode.CONSTANT: {
+                    Object constant = constants[readShort(code, ip)];
+                    ip += 2;
+                    if (constant instanceof Double) {
+                        stack[sp++] = NanBox.number((double)constant);
+                    } else {
+                        refs[sp] = constant;
+                        stack[sp++] = NanBox.REF;
+                    }
+                    break;
+                }
+                case OpCode.NIL:
+                    stack[sp++] = NanBox.NIL;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = NanBox.TRUE;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = NanBox.FALSE;
+                    break;
+                case OpCode.POP:
+                    sp--;
+                    break;
+
+                case OpCode.GET_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    ip += 2;
+                    long value = stack[slot];
+                    if (value == NanBox.REF) refs[sp] = refs[slot];
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    ip += 2;
+                    long value = stack[sp - 1];
+                    if (value == NanBox.REF) refs[slot] = refs[sp - 1];
+                    stack[slot] = value;
+                    break;
+                }
+                case OpCode.GET_CELL:
+                    sp = push(stack, refs, sp, ((Cell)refs[base + readShort(code, ip)]).value);
+                    ip += 2;
+                    break;
+                case OpCode.SET_CELL:
+                    ((Cell)refs[base + readShort(code, ip)]).value =
+                        NanBox.box(stack[sp - 1], refs[sp - 1]);
+                    ip += 2;
+                    break;
+                case OpCode.NEW_CELL: {
+                    int slot = base + readShort(code, ip);
+                    ip += 2;
+                    sp--;
+                    refs[slot] = new Cell(NanBox.box(stack[sp], refs[sp]));
+                    stack[slot] = NanBox.REF;
+                    break;
+                }
+                case OpCode.GET_UPVALUE:
+                    sp = push(stack, refs, sp, upvalues[readShort(code, ip)].value);
+                    ip += 2;
+                    break;
+                case OpCode.SET_UPVALUE:
+                    upvalues[readShort(code, ip)].value = NanBox.box(stack[sp - 1], refs[sp - 1]);
+                    ip += 2;
+                    break;
+                case OpCode.GET_GLOBAL:
+                    sp = push(stack, refs, sp, globals.get((Token)constants[readShort(code, ip)]));
+                    ip += 2;
+                    break;
+                case OpCode.SET_GLOBAL:
+                    globals.assign((Token)constants[readShort(code, ip)],
+                        NanBox.box(stack[sp - 1], refs[sp - 1]));
+                    ip += 2;
+                    break;
+                case OpCode.DEFINE_GLOBAL:
+                    sp--;
+                    globals.define((Symbol)constants[readShort(code, ip)],
+                        NanBox.box(stack[sp], refs[sp]));
+                    ip += 2;
+                    break;
+
+                case OpCode.EQUAL:
+                    sp--;
+                    stack[sp - 1] = NanBox.bool(
+                        NanBox.isEqual(stack[sp - 1], refs[sp - 1], stack[sp], refs[sp]));
+                    break;
+                case OpCode.NOT_EQUAL:
+                    sp--;
+                    stack[sp - 1] = NanBox.bool(
+                        !NanBox.isEqual(stack[sp - 1], refs[sp - 1], stack[sp], refs[sp]));
+                    break;
+                case OpCode.GREATER: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = NanBox.bool(NanBox.asNumber(left) > NanBox.asNumber(right));
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = NanBox.bool(NanBox.asNumber(left) >= NanBox.asNumber(right));
+                    break;
+                }
+                case OpCode.LESS: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = NanBox.bool(NanBox.asNumber(left) < NanBox.asNumber(right));
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = NanBox.bool(NanBox.asNumber(left) <= NanBox.asNumber(right));
+                    break;
+                }
+                case OpCode.ADD: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if (NanBox.isNumber(left) && NanBox.isNumber(right)) {
+                        stack[sp - 1] = NanBox.number(NanBox.asNumber(left) + NanBox.asNumber(right));
+                        break;
+                    }
+                    // Strings, possibly with a number on one side.
+                    Object sum = Values.add(NanBox.box(left, refs[sp - 1]), NanBox.box(right, refs[sp]));
+                    if (sum == null) {
+                        throw error(ip, "Operands must be two numbers or two strings.");
+                    }
+                    refs[sp - 1] = sum;
+                    stack[sp - 1] = NanBox.REF;
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = NanBox.number(NanBox.asNumber(left) - NanBox.asNumber(right));
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = NanBox.number(NanBox.asNumber(left) * NanBox.asNumber(right));
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    if (NanBox.asNumber(right) == 0.0) {
+                        throw error(ip, "Division by zero.");
+                    }
+                    stack[sp - 1] = NanBox.number(NanBox.asNumber(left) / NanBox.asNumber(right));
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = NanBox.bool(!NanBox.isTruthy(stack[sp - 1]));
+                    break;
+                case OpCode.NEGATE:
+                    if (!NanBox.isNumber(stack[sp - 1])) {
+                        throw error(ip, "Operand must be a number.");
+                    }
+                    stack[sp - 1] = NanBox.number(-NanBox.asNumber(stack[sp - 1]));
+                    break;
+
+                case OpCode.PRINT:
+                    sp--;
+                    System.out.println(Values.stringify(NanBox.box(stack[sp], refs[sp])));
+                    break;
+                case OpCode.JUMP:
+                    ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (!NanBox.isTruthy(stack[sp - 1])) ip += readShort(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.JUMP_IF_TRUE:
+                    if (NanBox.isTruthy(stack[sp - 1])) ip += readShort(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.LOOP:
+                    ip -= readShort(code, ip) - 2;
+                    break;
+
+                case OpCode.TAIL_CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    int callee = sp - argCount - 1;
+                    Object object = stack[callee] == NanBox.REF ? refs[callee] : null;
+
+                    if (object instanceof Closure) {
+                        Closure closure = (Closure)object;
+                        checkArity(ip, closure.prototype.arity, argCount);
+
+                        // Move the callee and its arguments down over this
+                        // frame, and reuse it for the callee.
+                        System.arraycopy(stack, callee, stack, base - 1, argCount + 1);
+                        System.arraycopy(refs, callee, refs, base - 1, argCount + 1);
+                        Arrays.fill(refs, base + argCount, sp, null);
+                        frameCount--;
+                        frame = pushFrame(closure, base);
+                        stack = values;
+                        refs = this.stack;
+                        code = closure.prototype.chunk.code;
+                        constants = closure.prototype.chunk.constants;
+                        upvalues = closure.upvalues;
+                        ip = 0;
+                        sp = base + closure.prototype.frameSize;
+                        break;
+                    }
+
+                    // Anything else is called as by a CALL, and the RETURN
+                    // that follows returns its result.
+                    Object result = callNative(ip, object, sp - argCount, argCount);
+                    Arrays.fill(refs, callee, sp, null);
+                    sp = push(stack, refs, callee, result);
+                    break;
+                }
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    int callee = sp - argCount - 1;
+                    Object object = stack[callee] == NanBox.REF ? refs[callee] : null;
+
+                    if (object instanceof Closure) {
+                        Closure closure = (Closure)object;
+                        checkArity(ip, closure.prototype.arity, argCount);
+
+                        // Save the caller's position and switch to the callee.
+                        frame.ip = ip;
+                        frame = pushFrame(closure, sp - argCount);
+                        stack = values;
+                        refs = this.stack;
+                        code = closure.prototype.chunk.code;
+                        constants = closure.prototype.chunk.constants;
+                        upvalues = closure.upvalues;
+                        base = frame.base;
+                        ip = 0;
+                        sp = base + closure.prototype.frameSize;
+                        break;
+                    }
+
+                    // Natives are called with boxed arguments (see value()).
+                    Object result = callNative(ip, object, sp - argCount, argCount);
+                    Arrays.fill(refs, callee, sp, null);
+                    sp = push(stack, refs, callee, result);
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    Prototype prototype = (Prototype)constants[readShort(code, ip)];
+                    ip += 2;
+                    refs[sp] = new Closure(prototype, captureUpvalues(prototype, base, upvalues));
+                    stack[sp++] = NanBox.REF;
+                    break;
+                }
+                case OpCode.RETURN: {
+                    sp--;
+                    long result = stack[sp];
+                    Object resultRef = refs[sp];
+                    frameCount--;
+                    // Clear the finished frame's references (and its
+                    // callee) so the side table doesn't keep them alive.
+                    Arrays.fill(refs, base - 1, sp + 1, null);
+                    if (frameCount == 0) return;
+
+                    sp = base - 1;
+                    refs[sp] = resultRef;
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.prototype.chunk.code;
+                    constants = frame.closure.prototype.chunk.constants;
+                    upvalues = frame.closure.upvalues;
+                    base = frame.base;
+                    ip = frame.ip;
+                    break;
+                }
+                default:
+                    throw error(ip, "Unknown opcode " + instruction + ".");
+            }
+        }
+    }
+
+    // --- VM Helper Methods ---
+
+    /**
+     * Pushes a value in its usual representation onto the stack.
+     * @return The new stack pointer.
+     */
+    private static int push(long[] stack, Object[] refs, int sp, Object value) {
+        long boxed = NanBox.unbox(value);
+        if (boxed == NanBox.REF) refs[sp] = value;
+        stack[sp] = boxed;
+        return sp + 1;
+    }
+
+    private void checkNumberOperands(int ip, long left, long right) {
+        if (NanBox.isNumber(left) && NanBox.isNumber(right)) return;
+        throw error(ip, "Operands must be numbers.");
+    }
+}
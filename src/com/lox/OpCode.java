@@ -0,0 +1,53 @@
+package com.lox;
+
+/**
+ * The instruction set of the bytecode VM.
+ *
+ * Each instruction is a one-byte opcode followed by its operands.
+ * Unless noted otherwise, operands are two bytes (big-endian).
+ * These are plain byte constants rather than an enum so the VM can
+ * switch on the raw code byte.
+ */
+final class OpCode {
+    private OpCode() {}
+
+    static final byte CONSTANT      = 0;  // [index] push a constant
+    static final byte NIL           = 1;
+    static final byte TRUE          = 2;
+    static final byte FALSE         = 3;
+    static final byte POP           = 4;
+
+    static final byte GET_LOCAL     = 5;  // [slot]
+    static final byte SET_LOCAL     = 6;  // [slot] leaves the value on the stack
+    static final byte GET_CELL      = 7;  // [slot] a local boxed in a Cell
+    static final byte SET_CELL      = 8;  // [slot]
+    static final byte NEW_CELL      = 9;  // [slot] pops a value into a fresh Cell
+    static final byte GET_UPVALUE   = 10; // [index]
+    static final byte SET_UPVALUE   = 11; // [index]
+    static final byte GET_GLOBAL    = 12; // [name constant]
+    static final byte SET_GLOBAL    = 13; // [name constant]
+    static final byte DEFINE_GLOBAL = 14; // [name constant] pops the value
+
+    static final byte EQUAL         = 15;
+    static final byte NOT_EQUAL     = 16;
+    static final byte GREATER       = 17;
+    static final byte GREATER_EQUAL = 18;
+    static final byte LESS          = 19;
+    static final byte LESS_EQUAL    = 20;
+    static final byte ADD           = 21;
+    static final byte SUBTRACT      = 22;
+    static final byte MULTIPLY      = 23;
+    static final byte DIVIDE        = 24;
+    static final byte NOT           = 25;
+    static final byte NEGATE        = 26;
+
+    static final byte PRINT         = 27;
+    static final byte JUMP          = 28; // [offset] forward
+    static final byte JUMP_IF_FALSE = 29; // [offset] forward, doesn't pop
+    static final byte JUMP_IF_TRUE  = 30; // [offset] forward, doesn't pop
+    static final byte LOOP          = 31; // [offset] backward
+    static final byte CALL          = 32; // [argument count] (one byte)
+    static final byte CLOSURE       = 33; // [prototype constant]
+    static final byte RETURN        = 34;
+    static final byte TAIL_CALL     = 35; // [argument count] a CALL whose result is returned
+}
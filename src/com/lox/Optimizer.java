@@ -0,0 +1,938 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A static pass that simplifies the AST before it runs, so every engine
+ * does less work. It runs after the Resolver, whose bindings tell it
+ * which local each name refers to.
+ *
+ * - Operators whose operands are constants are folded into a literal,
+ *   e.g. `2 * 3` becomes `6` and `"a" + "b"` becomes `"ab"`. An
+ *   operation that would fail at runtime, like `1 / 0`, is left alone so
+ *   the error is still reported when (and if) it runs.
+ * - `and` and `or` with a constant left operand are reduced to one side.
+ * - Parentheses (Expr.Grouping) are dropped; they only matter to the
+ *   parser.
+ * - An `if` with a constant condition is replaced by the branch that
+ *   would run, a `while` whose condition is falsey is removed, and so is
+ *   an expression statement that is just a constant.
+ * - A local declared by `let` with a constant value and never assigned
+ *   is a constant too: its uses in the same function are replaced by the
+ *   value, which can then be folded in turn.
+ * - Parts of a loop condition that come out the same on every iteration,
+ *   like the `n * 2` in `i < n * 2`, are computed once before the loop
+ *   into a new local slot (see hoist()).
+ * - A call to a small global function, one whose body is just `return`
+ *   of a short expression, is replaced by that expression, with the
+ *   arguments stored into new local slots (see inline()).
+ * - A loop that counts a local by a constant step is marked, so the
+ *   Interpreter can count in a primitive double (see CountingLoop).
+ *
+ * Statements that are removed become null, and are dropped from the list
+ * they were in. Nodes are rebuilt rather than changed, except for
+ * function declarations, whose identity the engines rely on: their
+ * bodies are optimized in place.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // The values of the constant locals in the function being optimized,
+    // by slot. Slots are reused by sibling scopes, but a slot's entry is
+    // replaced by each declaration that takes it, and a use always comes
+    // after its own variable's declaration.
+    private Map<Integer, Expr.Literal> constants = new HashMap<>();
+    // The size of the frame of the function being optimized, which grows
+    // when a value is hoisted out of a loop.
+    private int frameSize;
+    // While hoisting from a loop condition: whether everything evaluated
+    // so far can neither fail nor have an effect.
+    private boolean harmless;
+
+    // The global functions that can be inlined, with the expressions
+    // they return (as the Resolver left them).
+    private final Map<Stmt.Function, Expr> inlineable = new HashMap<>();
+    // By name, for the call sites.
+    private final Map<String, Stmt.Function> inlineableByName = new HashMap<>();
+    // The functions being inlined, innermost last, which can't be
+    // inlined into themselves.
+    private final List<Stmt.Function> inlining = new ArrayList<>();
+    // While optimizing an inlined body: what each parameter slot is
+    // replaced by, either an argument's new slot or a literal argument.
+    private Expr[] parameters;
+
+    // The most nodes a function's return value can have to be inlined.
+    private static final int INLINE_SIZE = 16;
+
+    /**
+     * Optimizes a list of top-level statements in place.
+     * @param frameSize The size of the top-level frame, from the Resolver.
+     * @return The size of the top-level frame after optimizing.
+     */
+    int optimize(List<Stmt> statements, int frameSize) {
+        this.frameSize = frameSize;
+        findInlineable(statements);
+        optimize(statements);
+        return this.frameSize;
+    }
+
+    private void optimize(List<Stmt> statements) {
+        List<Stmt> optimized = optimizeAll(statements);
+        statements.clear();
+        statements.addAll(optimized);
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if (result != null) optimized.add(result);
+        }
+        return optimized;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    // --- Statements ---
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return new Stmt.Block(optimizeAll(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        // A constant on its own does nothing.
+        if (expression instanceof Expr.Literal) return null;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.slot >= 0) constants.remove(stmt.slot);
+
+        // The function gets its own frame, with its own constants.
+        Map<Integer, Expr.Literal> enclosingConstants = constants;
+        int enclosingFrameSize = frameSize;
+        constants = new HashMap<>();
+        frameSize = stmt.frameSize;
+        optimize(stmt.body);
+        stmt.frameSize = frameSize;
+        constants = enclosingConstants;
+        frameSize = enclosingFrameSize;
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal) {
+            Stmt branch = Values.isTruthy(((Expr.Literal)condition).value) ?
+                stmt.thenBranch : stmt.elseBranch;
+            return branch == null ? null : optimize(branch);
+        }
+
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        if (thenBranch == null) thenBranch = new Stmt.Block(new ArrayList<>());
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        Expr value = optimize(stmt.value);
+        // A tail call only runs in constant space while it's still a call,
+        // so it isn't replaced by a body that makes calls of its own.
+        if (value instanceof Expr.Inline && makesCalls(((Expr.Inline)value).body)) {
+            value = ((Expr.Inline)value).call;
+        }
+
+        Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+        // Dropping parentheses can turn the value into a call.
+        result.tailCall = result.value instanceof Expr.Call;
+        return result;
+    }
+
+    @Override
+    public Stmt visitLetStmt(Stmt.Let stmt) {
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+
+        if (stmt.slot >= 0) {
+            // `let x;` is a constant nil.
+            Expr.Literal value = initializer == null ?
+                new Expr.Literal(null) : initializer instanceof Expr.Literal ?
+                (Expr.Literal)initializer : null;
+            if (value != null && !stmt.assigned) {
+                constants.put(stmt.slot, value);
+            } else {
+                constants.remove(stmt.slot);
+            }
+        }
+
+        Stmt.Let result = new Stmt.Let(stmt.name, initializer);
+        result.slot = stmt.slot;
+        result.captured = stmt.captured;
+        result.assigned = stmt.assigned;
+        return result;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal &&
+                !Values.isTruthy(((Expr.Literal)condition).value)) {
+            return null;
+        }
+
+        Stmt body = optimize(stmt.body);
+        if (body == null) body = new Stmt.Block(new ArrayList<>());
+
+        List<Stmt> hoisted = new ArrayList<>();
+        harmless = true;
+        condition = hoist(condition, new LoopEffects(condition, body), hoisted);
+        Stmt.While result = new Stmt.While(condition, body);
+        result.counting = counting(condition, body);
+        if (hoisted.isEmpty()) return result;
+
+        hoisted.add(result);
+        return new Stmt.Block(hoisted);
+    }
+
+    // --- Expressions ---
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr.Assign result = new Expr.Assign(expr.name, optimize(expr.value));
+        result.binding = expr.binding;
+        result.slot = expr.slot;
+        return result;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        Expr.Binary result = new Expr.Binary(left, expr.operator, right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            try {
+                // Evaluate it exactly as the Interpreter would. A long
+                // string comes back as a Rope, which only appears at
+                // runtime, so the literal holds it as a String.
+                Object value = BinaryNode.GENERIC.execute(result,
+                    ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+                if (value instanceof Rope) value = value.toString();
+                return new Expr.Literal(value);
+            } catch (RuntimeError error) {
+                // Leave it to fail at runtime.
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            arguments.add(optimize(argument));
+        }
+        Expr.Call call = new Expr.Call(callee, expr.paren, arguments);
+
+        if (callee instanceof Expr.Variable &&
+                ((Expr.Variable)callee).binding == Binding.GLOBAL) {
+            Stmt.Function function = inlineableByName.get(((Expr.Variable)callee).name.lexeme);
+            if (function != null && function.params.size() == arguments.size() &&
+                    !inlining.contains(function)) {
+                return inline(call, function);
+            }
+        }
+        return call;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        // Only made here, from expressions that don't contain any.
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal) {
+            boolean truthy = Values.isTruthy(((Expr.Literal)left).value);
+            if (expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)right).value;
+            switch (expr.operator.type) {
+                case BANG:
+                    return new Expr.Literal(!Values.isTruthy(value));
+                case MINUS:
+                    if (Values.isNumber(value)) return new Expr.Literal(Values.negate(value));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        // In an inlined body, every local is a parameter.
+        if (parameters != null && expr.binding == Binding.LOCAL) {
+            return parameters[expr.slot];
+        }
+        if (expr.binding == Binding.LOCAL || expr.binding == Binding.CELL) {
+            Expr.Literal value = constants.get(expr.slot);
+            if (value != null) return value;
+        }
+        return expr;
+    }
+
+    // --- Inlining ---
+
+    /**
+     * Finds the global functions whose calls can be replaced by their
+     * bodies. The body must be a single `return` of a short expression
+     * that doesn't assign a parameter or call the function itself, and
+     * the function's name must be declared once and never assigned. The
+     * name might still be rebound (by a later line in the REPL, say), so
+     * each inlined site checks it before using the body.
+     */
+    private void findInlineable(List<Stmt> statements) {
+        GlobalWrites writes = new GlobalWrites();
+        for (Stmt statement : statements) {
+            statement.accept(writes);
+        }
+
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Function)) continue;
+            Stmt.Function function = (Stmt.Function)statement;
+            String name = function.name.lexeme;
+            if (function.slot >= 0 || writes.declared.get(name) != 1 ||
+                    writes.assigned.contains(name)) {
+                continue;
+            }
+
+            Expr body;
+            if (function.body.isEmpty()) {
+                body = new Expr.Literal(null);
+            } else if (function.body.size() == 1 && function.body.get(0) instanceof Stmt.Return) {
+                Stmt.Return stmt = (Stmt.Return)function.body.get(0);
+                body = stmt.value == null ? new Expr.Literal(null) : stmt.value;
+            } else {
+                continue;
+            }
+
+            if (size(body, name) <= INLINE_SIZE) {
+                inlineable.put(function, body);
+                inlineableByName.put(name, function);
+            }
+        }
+    }
+
+    /**
+     * Counts the nodes in an expression that might be inlined, or gives
+     * more than INLINE_SIZE if it can't be: if it assigns a local (one
+     * of the parameters) or calls the named function.
+     */
+    private static int size(Expr expr, String name) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            return 1 + size(binary.left, name) + size(binary.right, name);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            return 1 + size(logical.left, name) + size(logical.right, name);
+        }
+        if (expr instanceof Expr.Unary) return 1 + size(((Expr.Unary)expr).right, name);
+        if (expr instanceof Expr.Grouping) return size(((Expr.Grouping)expr).expression, name);
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign)expr;
+            if (assign.binding != Binding.GLOBAL) return INLINE_SIZE + 1;
+            return 1 + size(assign.value, name);
+        }
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call)expr;
+            if (call.callee instanceof Expr.Variable &&
+                    ((Expr.Variable)call.callee).name.lexeme.equals(name)) {
+                return INLINE_SIZE + 1;
+            }
+            int size = 1 + size(call.callee, name);
+            for (Expr argument : call.arguments) {
+                size += size(argument, name);
+            }
+            return size;
+        }
+        // A literal or a variable.
+        return 1;
+    }
+
+    /**
+     * Replaces a call with the body of the function it calls. Each
+     * argument is evaluated into a new slot, in order, and the body reads
+     * the slots in place of the parameters. A literal argument is put into
+     * the body instead, where it may be folded further, and so is a local
+     * that none of the arguments assigns, which nothing else can change
+     * while the body runs.
+     */
+    private Expr inline(Expr.Call call, Stmt.Function function) {
+        boolean assigns = false;
+        for (Expr argument : call.arguments) {
+            assigns = assigns || assigns(argument);
+        }
+
+        int[] slots = new int[call.arguments.size()];
+        Expr[] replacements = new Expr[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            Expr argument = call.arguments.get(i);
+            if (argument instanceof Expr.Literal || (!assigns &&
+                    argument instanceof Expr.Variable &&
+                    ((Expr.Variable)argument).binding == Binding.LOCAL)) {
+                slots[i] = -1;
+                replacements[i] = argument;
+            } else {
+                slots[i] = frameSize++;
+                Expr.Variable parameter = new Expr.Variable(function.params.get(i));
+                parameter.binding = Binding.LOCAL;
+                parameter.slot = slots[i];
+                replacements[i] = parameter;
+            }
+        }
+
+        Expr[] enclosingParameters = parameters;
+        parameters = replacements;
+        inlining.add(function);
+        Expr body = optimize(inlineable.get(function));
+        inlining.remove(inlining.size() - 1);
+        parameters = enclosingParameters;
+
+        return new Expr.Inline(call, function, slots, body);
+    }
+
+    /**
+     * Whether an expression contains an assignment.
+     */
+    private static boolean assigns(Expr expr) {
+        if (expr instanceof Expr.Assign) return true;
+        if (expr instanceof Expr.Binary) {
+            return assigns(((Expr.Binary)expr).left) || assigns(((Expr.Binary)expr).right);
+        }
+        if (expr instanceof Expr.Logical) {
+            return assigns(((Expr.Logical)expr).left) || assigns(((Expr.Logical)expr).right);
+        }
+        if (expr instanceof Expr.Unary) return assigns(((Expr.Unary)expr).right);
+        if (expr instanceof Expr.Inline) return assigns(((Expr.Inline)expr).call);
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call)expr;
+            if (assigns(call.callee)) return true;
+            for (Expr argument : call.arguments) {
+                if (assigns(argument)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether evaluating an expression might call a function.
+     */
+    private static boolean makesCalls(Expr expr) {
+        if (expr instanceof Expr.Call || expr instanceof Expr.Inline) return true;
+        if (expr instanceof Expr.Binary) {
+            return makesCalls(((Expr.Binary)expr).left) || makesCalls(((Expr.Binary)expr).right);
+        }
+        if (expr instanceof Expr.Logical) {
+            return makesCalls(((Expr.Logical)expr).left) || makesCalls(((Expr.Logical)expr).right);
+        }
+        if (expr instanceof Expr.Unary) return makesCalls(((Expr.Unary)expr).right);
+        if (expr instanceof Expr.Assign) return makesCalls(((Expr.Assign)expr).value);
+        return false;
+    }
+
+    // --- Counting Loops ---
+
+    /**
+     * Recognizes a loop that counts a local by a constant step, the way
+     * the Parser desugars `for (let i = 0; i < n; i = i + 1)`: it
+     * compares the local to a limit and its body ends by adding a number
+     * to the local (or subtracting one). Nothing else in the loop may
+     * assign the local.
+     * @return The loop's description, or null if it isn't one.
+     */
+    private static CountingLoop counting(Expr condition, Stmt body) {
+        if (!(condition instanceof Expr.Binary) || !(body instanceof Stmt.Block)) return null;
+        Expr.Binary comparison = (Expr.Binary)condition;
+        switch (comparison.operator.type) {
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL:
+                break;
+            default:
+                return null;
+        }
+        if (!(comparison.left instanceof Expr.Variable) ||
+                ((Expr.Variable)comparison.left).binding != Binding.LOCAL) {
+            return null;
+        }
+        int slot = ((Expr.Variable)comparison.left).slot;
+
+        // The increment, `local = local + step`.
+        List<Stmt> statements = ((Stmt.Block)body).statements;
+        if (statements.isEmpty()) return null;
+        Stmt last = statements.get(statements.size() - 1);
+        if (!(last instanceof Stmt.Expression) ||
+                !(((Stmt.Expression)last).expression instanceof Expr.Assign)) {
+            return null;
+        }
+        Expr.Assign increment = (Expr.Assign)((Stmt.Expression)last).expression;
+        if (increment.binding != Binding.LOCAL || increment.slot != slot ||
+                !(increment.value instanceof Expr.Binary)) {
+            return null;
+        }
+        Expr.Binary sum = (Expr.Binary)increment.value;
+        TokenType type = sum.operator.type;
+        if ((type != TokenType.PLUS && type != TokenType.MINUS) ||
+                !(sum.left instanceof Expr.Variable) ||
+                ((Expr.Variable)sum.left).binding != Binding.LOCAL ||
+                ((Expr.Variable)sum.left).slot != slot ||
+                !(sum.right instanceof Expr.Literal) ||
+                !Values.isNumber(((Expr.Literal)sum.right).value)) {
+            return null;
+        }
+        Object literal = ((Expr.Literal)sum.right).value;
+        double step = Values.toDouble(literal);
+        // Subtracting is adding the negation, with the same result.
+        if (type == TokenType.MINUS) step = -step;
+
+        List<Stmt> rest = new ArrayList<>(statements.subList(0, statements.size() - 1));
+        LoopEffects effects = new LoopEffects(comparison.right, new Stmt.Block(rest));
+        if (effects.slots.contains(slot)) return null;
+        return new CountingLoop(slot, comparison, step, literal instanceof Long, rest,
+            effects.reads.contains(slot));
+    }
+
+    // --- Loop-Invariant Code Motion ---
+
+    /**
+     * Moves the invariant operations in a loop condition into locals
+     * assigned before the loop, walking the condition in the order it's
+     * evaluated.
+     *
+     * The condition always runs at least once, straight after the code
+     * before the loop, so computing part of it early makes no difference
+     * as long as everything evaluated before that part is harmless: an
+     * error is still the same error, and nothing observable happened in
+     * between. Once something that can fail or have an effect has been
+     * passed (a call, an assignment or most operators), nothing more is
+     * hoisted. Neither is anything in the right operand of `and` or `or`,
+     * which might not run at all.
+     * @param hoisted Receives the declarations of the new locals.
+     */
+    private Expr hoist(Expr expr, LoopEffects loop, List<Stmt> hoisted) {
+        if (harmless && (expr instanceof Expr.Binary || expr instanceof Expr.Unary) &&
+                loop.isInvariant(expr)) {
+            Token operator = expr instanceof Expr.Binary ?
+                ((Expr.Binary)expr).operator : ((Expr.Unary)expr).operator;
+            int slot = frameSize++;
+            Token name = new Token(TokenType.IDENTIFIER, "invariant", null, operator.line);
+
+            Stmt.Let declaration = new Stmt.Let(name, expr);
+            declaration.slot = slot;
+            hoisted.add(declaration);
+
+            Expr.Variable use = new Expr.Variable(name);
+            use.binding = Binding.LOCAL;
+            use.slot = slot;
+            return use;
+        }
+
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            Expr left = hoist(binary.left, loop, hoisted);
+            Expr right = hoist(binary.right, loop, hoisted);
+            // Only equality works on operands of any type.
+            TokenType type = binary.operator.type;
+            if (type != TokenType.EQUAL_EQUAL && type != TokenType.BANG_EQUAL) harmless = false;
+            return new Expr.Binary(left, binary.operator, right);
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            Expr right = hoist(unary.right, loop, hoisted);
+            if (unary.operator.type != TokenType.BANG) harmless = false;
+            return new Expr.Unary(unary.operator, right);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            Expr left = hoist(logical.left, loop, hoisted);
+            harmless = harmless && isHarmless(logical.right);
+            return new Expr.Logical(left, logical.operator, logical.right);
+        }
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call)expr;
+            Expr callee = hoist(call.callee, loop, hoisted);
+            List<Expr> arguments = new ArrayList<>(call.arguments.size());
+            for (Expr argument : call.arguments) {
+                arguments.add(hoist(argument, loop, hoisted));
+            }
+            harmless = false;
+            return new Expr.Call(callee, call.paren, arguments);
+        }
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign)expr;
+            Expr.Assign result = new Expr.Assign(assign.name, hoist(assign.value, loop, hoisted));
+            result.binding = assign.binding;
+            result.slot = assign.slot;
+            harmless = false;
+            return result;
+        }
+
+        // A literal or a variable. Reading a global fails if it's undefined.
+        if (!isHarmless(expr)) harmless = false;
+        return expr;
+    }
+
+    /**
+     * Whether evaluating an expression can neither fail nor have an effect.
+     */
+    private static boolean isHarmless(Expr expr) {
+        if (expr instanceof Expr.Literal) return true;
+        return expr instanceof Expr.Variable && ((Expr.Variable)expr).binding != Binding.GLOBAL;
+    }
+
+    /**
+     * The variables a loop (its condition and body) may change, which
+     * tells what stays the same from one iteration to the next, and the
+     * locals it reads.
+     */
+    private static class LoopEffects implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Set<Integer> slots = new HashSet<>();
+        private final Set<String> globals = new HashSet<>();
+        // The local slots the loop reads.
+        private final Set<Integer> reads = new HashSet<>();
+        // Whether the loop makes calls, which could assign any global.
+        private boolean calls = false;
+
+        LoopEffects(Expr condition, Stmt body) {
+            condition.accept(this);
+            body.accept(this);
+        }
+
+        /**
+         * Whether an expression has the same value on every iteration.
+         * It's made of operators on constants and variables the loop
+         * doesn't change. Locals in Cells are left out, since a closure
+         * could change them.
+         */
+        boolean isInvariant(Expr expr) {
+            if (expr instanceof Expr.Literal) return true;
+            if (expr instanceof Expr.Variable) {
+                Expr.Variable variable = (Expr.Variable)expr;
+                switch (variable.binding) {
+                    case LOCAL:
+                        return !slots.contains(variable.slot);
+                    case GLOBAL:
+                        return !calls && !globals.contains(variable.name.lexeme);
+                    default:
+                        return false;
+                }
+            }
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary)expr;
+                return isInvariant(binary.left) && isInvariant(binary.right);
+            }
+            if (expr instanceof Expr.Unary) {
+                return isInvariant(((Expr.Unary)expr).right);
+            }
+            return false;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            stmt.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            // Its body is another frame; only the declaration assigns here.
+            if (stmt.slot >= 0) slots.add(stmt.slot);
+            else globals.add(stmt.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            stmt.condition.accept(this);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            stmt.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value != null) stmt.value.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLetStmt(Stmt.Let stmt) {
+            if (stmt.initializer != null) stmt.initializer.accept(this);
+            if (stmt.slot >= 0) slots.add(stmt.slot);
+            else globals.add(stmt.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            stmt.condition.accept(this);
+            stmt.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            expr.value.accept(this);
+            if (expr.binding == Binding.GLOBAL) {
+                globals.add(expr.name.lexeme);
+            } else if (expr.binding != Binding.UPVALUE) {
+                slots.add(expr.slot);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            expr.left.accept(this);
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            calls = true;
+            expr.callee.accept(this);
+            for (Expr argument : expr.arguments) {
+                argument.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            expr.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitInlineExpr(Expr.Inline expr) {
+            // The call might still be made.
+            calls = true;
+            for (int slot : expr.slots) {
+                if (slot >= 0) slots.add(slot);
+            }
+            for (Expr argument : expr.call.arguments) {
+                argument.accept(this);
+            }
+            expr.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            expr.left.accept(this);
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            if (expr.binding == Binding.LOCAL) reads.add(expr.slot);
+            return null;
+        }
+    }
+
+    /**
+     * The global names a program declares, with how many times each is
+     * declared, and the ones it assigns anywhere, even in a function.
+     */
+    private static class GlobalWrites implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Map<String, Integer> declared = new HashMap<>();
+        private final Set<String> assigned = new HashSet<>();
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            stmt.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            if (stmt.slot < 0) declared.merge(stmt.name.lexeme, 1, Integer::sum);
+            for (Stmt statement : stmt.body) {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            stmt.condition.accept(this);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            stmt.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value != null) stmt.value.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLetStmt(Stmt.Let stmt) {
+            if (stmt.initializer != null) stmt.initializer.accept(this);
+            if (stmt.slot < 0) declared.merge(stmt.name.lexeme, 1, Integer::sum);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            stmt.condition.accept(this);
+            stmt.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            expr.value.accept(this);
+            if (expr.binding == Binding.GLOBAL) assigned.add(expr.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            expr.left.accept(this);
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            expr.callee.accept(this);
+            for (Expr argument : expr.arguments) {
+                argument.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            expr.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitInlineExpr(Expr.Inline expr) {
+            return expr.call.accept(this);
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            expr.left.accept(this);
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.lox;
+
+/**
+ * A function compiled to bytecode. It is the shared, immutable part
+ * of a function; the VM pairs it with captured cells to make a closure.
+ */
+class Prototype {
+    final String name;
+    final int arity;
+    final int frameSize;        // Slots for parameters and locals
+    final int maxStack;         // Deepest the operand stack gets above the locals
+    final int[] capturedParams; // Parameter slots to box into Cells on entry
+    final Upvalue[] upvalues;   // Where each captured cell comes from
+    final Chunk chunk;
+
+    Prototype(String name, int arity, int frameSize, int maxStack,
+              int[] capturedParams, Upvalue[] upvalues, Chunk chunk) {
+        this.name = name;
+        this.arity = arity;
+        this.frameSize = frameSize;
+        this.maxStack = maxStack;
+        this.capturedParams = capturedParams;
+        this.upvalues = upvalues;
+        this.chunk = chunk;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,587 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiles a resolved AST to code for the register VM.
+ *
+ * Every frame slot the Resolver assigned becomes a register, so an
+ * expression over locals such as `a + b` compiles to one instruction
+ * that reads the locals in place: ADD dst, a, b. Intermediate results
+ * go into temporary registers above the locals, which are allocated
+ * and freed like a stack as the expression tree is walked.
+ *
+ * Expressions are compiled into a target register chosen by the caller.
+ * Where that is safe, the target is a local itself, so `i = i + 1;`
+ * is a single ADD i, i, ~k instruction.
+ */
+class RegisterCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int[] NO_SLOTS = new int[0];
+    private static final Upvalue[] NO_UPVALUES = new Upvalue[0];
+
+    // The function being compiled.
+    private int[] code = new int[64];
+    private int[] lines = new int[64];
+    private int count = 0;
+    private List<Object> constants = new ArrayList<>();
+    private int localCount;    // The registers that hold locals
+    private int freeRegister;  // The lowest free temporary register
+    private int maxRegister;   // The number of registers the frame needs
+    private int line = 1;
+
+    // Where the expression being compiled should put its value.
+    private int target;
+
+    /**
+     * Main entry point. Compiles the top-level code of a program.
+     * @param frameSize The number of local slots the top-level code
+     *                  needs, as computed by the Resolver.
+     * @return The program as a function taking no arguments.
+     */
+    RegisterFunction compile(List<Stmt> statements, int frameSize) {
+        localCount = frameSize;
+        freeRegister = frameSize;
+        maxRegister = frameSize;
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(RegisterOp.RETURNNIL);
+        return finish("script", 0, NO_SLOTS, NO_UPVALUES);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    // --- Expression Compilation Helpers ---
+
+    /**
+     * Compiles an expression so its value ends up in register 'dst'.
+     */
+    private void compileInto(Expr expr, int dst) {
+        int enclosingTarget = target;
+        target = dst;
+        expr.accept(this);
+        target = enclosingTarget;
+    }
+
+    /**
+     * Compiles an expression into whatever register is cheapest.
+     * A local variable is used in place, with no code at all;
+     * anything else gets a new temporary register.
+     */
+    private int compileToRegister(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping)expr).expression;
+        }
+        if (expr instanceof Expr.Variable
+                && ((Expr.Variable)expr).binding == Binding.LOCAL) {
+            return ((Expr.Variable)expr).slot;
+        }
+
+        int register = allocateRegister();
+        compileInto(expr, register);
+        return register;
+    }
+
+    /**
+     * Compiles an RK operand: a number or string literal becomes a
+     * constant reference, anything else goes through a register.
+     */
+    private int compileOperand(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping)expr).expression;
+        }
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)expr).value;
+            if (value instanceof Double || value instanceof String) {
+                return ~makeConstant(value);
+            }
+        }
+        return compileToRegister(expr);
+    }
+
+    /**
+     * Compiles both operands of a binary operation. If evaluating the
+     * right operand could change a local the left operand is reading in
+     * place, the left value is copied to a temporary first, so operands
+     * are still seen in left-to-right order.
+     * @return The left and right RK operands.
+     */
+    private int[] compileOperands(Expr left, Expr right) {
+        int leftOperand = compileOperand(left);
+        if (leftOperand >= 0 && leftOperand < localCount && assigns(right)) {
+            int copy = allocateRegister();
+            emit(RegisterOp.MOVE, copy, leftOperand);
+            leftOperand = copy;
+        }
+        int rightOperand = compileOperand(right);
+        return new int[] { leftOperand, rightOperand };
+    }
+
+    /**
+     * Checks whether an expression contains an assignment.
+     */
+    private static boolean assigns(Expr expr) {
+        if (expr instanceof Expr.Assign) return true;
+        if (expr instanceof Expr.Binary) {
+            return assigns(((Expr.Binary)expr).left) || assigns(((Expr.Binary)expr).right);
+        }
+        if (expr instanceof Expr.Logical) {
+            return assigns(((Expr.Logical)expr).left) || assigns(((Expr.Logical)expr).right);
+        }
+        if (expr instanceof Expr.Unary) return assigns(((Expr.Unary)expr).right);
+        if (expr instanceof Expr.Grouping) return assigns(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Inline) return assigns(((Expr.Inline)expr).call);
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call)expr;
+            if (assigns(call.callee)) return true;
+            for (Expr argument : call.arguments) {
+                if (assigns(argument)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether an expression compiles to a single instruction that
+     * reads all its operands before writing its result. Only those can
+     * safely target a local register that they might also read.
+     */
+    private static boolean writesOnce(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping)expr).expression;
+        }
+        return expr instanceof Expr.Binary
+            || expr instanceof Expr.Unary
+            || expr instanceof Expr.Literal
+            || expr instanceof Expr.Variable;
+    }
+
+    // --- Statement Visitor Implementations ---
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        int saved = freeRegister;
+        if (stmt.expression instanceof Expr.Assign) {
+            // The value of the assignment itself is not needed.
+            compileAssign((Expr.Assign)stmt.expression, -1);
+        } else {
+            compileToRegister(stmt.expression);
+        }
+        freeRegister = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        int function = makeConstant(compileFunction(stmt));
+        int saved = freeRegister;
+
+        if (stmt.slot < 0) {
+            int register = allocateRegister();
+            emit(RegisterOp.CLOSURE, register, function);
+            emit(RegisterOp.DEFGLOBAL, register, makeConstant(stmt.name.symbol));
+        } else if (stmt.captured) {
+            // NEWCELL before CLOSURE, so a recursive function finds its
+            // own cell.
+            int register = allocateRegister();
+            emit(RegisterOp.LOADNIL, register);
+            emit(RegisterOp.NEWCELL, stmt.slot, register);
+            emit(RegisterOp.CLOSURE, register, function);
+            emit(RegisterOp.SETCELL, register, stmt.slot);
+        } else {
+            emit(RegisterOp.CLOSURE, stmt.slot, function);
+        }
+
+        freeRegister = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int thenJump = compileCondition(stmt.condition);
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+
+        emit(RegisterOp.JMP, 0);
+        int elseJump = count - 1;
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        int saved = freeRegister;
+        int register = compileToRegister(stmt.expression);
+        emit(RegisterOp.PRINT, register);
+        freeRegister = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emit(RegisterOp.RETURNNIL);
+            return null;
+        }
+
+        int saved = freeRegister;
+        int register;
+        if (stmt.tailCall) {
+            // The callee and its arguments go in consecutive registers,
+            // as for a CALL, and the callee replaces this frame.
+            Expr.Call call = (Expr.Call)stmt.value;
+            register = allocateRegister();
+            compileInto(call.callee, register);
+            for (Expr argument : call.arguments) {
+                compileInto(argument, allocateRegister());
+            }
+            line = call.paren.line;
+            emit(RegisterOp.TAILCALL, register, call.arguments.size());
+        } else {
+            register = compileToRegister(stmt.value);
+        }
+        line = stmt.keyword.line;
+        emit(RegisterOp.RETURN, register);
+        freeRegister = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitLetStmt(Stmt.Let stmt) {
+        line = stmt.name.line;
+        int saved = freeRegister;
+
+        if (stmt.slot >= 0 && !stmt.captured) {
+            // A new local's register can't be read by its own
+            // initializer, so the value can go straight into it.
+            if (stmt.initializer != null) {
+                compileInto(stmt.initializer, stmt.slot);
+            } else {
+                emit(RegisterOp.LOADNIL, stmt.slot);
+            }
+            freeRegister = saved;
+            return null;
+        }
+
+        int register = allocateRegister();
+        if (stmt.initializer != null) {
+            compileInto(stmt.initializer, register);
+        } else {
+            emit(RegisterOp.LOADNIL, register);
+        }
+        line = stmt.name.line;
+        if (stmt.slot < 0) {
+            emit(RegisterOp.DEFGLOBAL, register, makeConstant(stmt.name.symbol));
+        } else {
+            emit(RegisterOp.NEWCELL, stmt.slot, register);
+        }
+        freeRegister = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = count;
+        int exitJump = compileCondition(stmt.condition);
+        compile(stmt.body);
+        emit(RegisterOp.JMP, loopStart);
+        patchJump(exitJump);
+        return null;
+    }
+
+    /**
+     * Compiles a branch condition. Number comparisons become a single
+     * fused compare-and-jump; anything else is evaluated and tested.
+     * @return The position of the jump target, to be patched later.
+     */
+    private int compileCondition(Expr condition) {
+        while (condition instanceof Expr.Grouping) {
+            condition = ((Expr.Grouping)condition).expression;
+        }
+        int saved = freeRegister;
+
+        if (condition instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)condition;
+            int opcode = -1;
+            switch (binary.operator.type) {
+                case LESS:          opcode = RegisterOp.JNLT; break;
+                case LESS_EQUAL:    opcode = RegisterOp.JNLE; break;
+                case GREATER:       opcode = RegisterOp.JNGT; break;
+                case GREATER_EQUAL: opcode = RegisterOp.JNGE; break;
+                default: break;
+            }
+            if (opcode >= 0) {
+                int[] operands = compileOperands(binary.left, binary.right);
+                line = binary.operator.line;
+                emit(opcode, operands[0], operands[1], 0);
+                freeRegister = saved;
+                return count - 1;
+            }
+        }
+
+        int register = compileToRegister(condition);
+        emit(RegisterOp.JMPF, register, 0);
+        freeRegister = saved;
+        return count - 1;
+    }
+
+    // --- Expression Visitor Implementations ---
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compileAssign(expr, target);
+        return null;
+    }
+
+    /**
+     * Compiles an assignment, also leaving its value in 'dst'
+     * unless 'dst' is -1.
+     */
+    private void compileAssign(Expr.Assign expr, int dst) {
+        int saved = freeRegister;
+
+        if (expr.binding == Binding.LOCAL && writesOnce(expr.value)) {
+            compileInto(expr.value, expr.slot);
+            if (dst >= 0 && dst != expr.slot) emit(RegisterOp.MOVE, dst, expr.slot);
+            freeRegister = saved;
+            return;
+        }
+
+        int register = dst >= 0 ? dst : allocateRegister();
+        compileInto(expr.value, register);
+        line = expr.name.line;
+        switch (expr.binding) {
+            case LOCAL:
+                emit(RegisterOp.MOVE, expr.slot, register);
+                break;
+            case CELL:
+                emit(RegisterOp.SETCELL, register, expr.slot);
+                break;
+            case UPVALUE:
+                emit(RegisterOp.SETUPVAL, register, expr.slot);
+                break;
+            default:
+                emit(RegisterOp.SETGLOBAL, register, makeConstant(expr.name));
+        }
+        freeRegister = saved;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        int saved = freeRegister;
+        int[] operands = compileOperands(expr.left, expr.right);
+        line = expr.operator.line;
+
+        int opcode;
+        switch (expr.operator.type) {
+            case MINUS:         opcode = RegisterOp.SUB; break;
+            case SLASH:         opcode = RegisterOp.DIV; break;
+            case STAR:          opcode = RegisterOp.MUL; break;
+            case PLUS:          opcode = RegisterOp.ADD; break;
+            case GREATER:       opcode = RegisterOp.GT; break;
+            case GREATER_EQUAL: opcode = RegisterOp.GE; break;
+            case LESS:          opcode = RegisterOp.LT; break;
+            case LESS_EQUAL:    opcode = RegisterOp.LE; break;
+            case BANG_EQUAL:    opcode = RegisterOp.NE; break;
+            case EQUAL_EQUAL:   opcode = RegisterOp.EQ; break;
+            default:
+                // Unreachable.
+                opcode = RegisterOp.EQ;
+        }
+        emit(opcode, target, operands[0], operands[1]);
+        freeRegister = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int saved = freeRegister;
+
+        // The callee and its arguments go in consecutive registers.
+        // The arguments become the first registers of the callee's frame.
+        int callee = allocateRegister();
+        compileInto(expr.callee, callee);
+        for (Expr argument : expr.arguments) {
+            compileInto(argument, allocateRegister());
+        }
+
+        line = expr.paren.line;
+        emit(RegisterOp.CALL, callee, expr.arguments.size(), target);
+        freeRegister = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compileInto(expr.expression, target);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        // The register VM always makes the call.
+        compileInto(expr.call, target);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(RegisterOp.LOADNIL, target);
+        } else if (Boolean.TRUE.equals(expr.value)) {
+            emit(RegisterOp.LOADTRUE, target);
+        } else if (Boolean.FALSE.equals(expr.value)) {
+            emit(RegisterOp.LOADFALSE, target);
+        } else {
+            emit(RegisterOp.LOADK, target, makeConstant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        // The target is written before the right operand runs, so this
+        // is never compiled straight into a local (see writesOnce()).
+        compileInto(expr.left, target);
+        line = expr.operator.line;
+        emit(expr.operator.type == TokenType.OR ? RegisterOp.JMPT : RegisterOp.JMPF,
+            target, 0);
+        int endJump = count - 1;
+        compileInto(expr.right, target);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        int saved = freeRegister;
+        int register = compileToRegister(expr.right);
+        line = expr.operator.line;
+        emit(expr.operator.type == TokenType.BANG ? RegisterOp.NOT : RegisterOp.NEG,
+            target, register);
+        freeRegister = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        switch (expr.binding) {
+            case LOCAL:
+                if (target != expr.slot) emit(RegisterOp.MOVE, target, expr.slot);
+                break;
+            case CELL:
+                emit(RegisterOp.GETCELL, target, expr.slot);
+                break;
+            case UPVALUE:
+                emit(RegisterOp.GETUPVAL, target, expr.slot);
+                break;
+            default:
+                emit(RegisterOp.GETGLOBAL, target, makeConstant(expr.name));
+        }
+        return null;
+    }
+
+    // --- Compiler Helper Methods ---
+
+    /**
+     * Compiles a function body with its own code and registers.
+     */
+    private RegisterFunction compileFunction(Stmt.Function function) {
+        int[] enclosingCode = code;
+        int[] enclosingLines = lines;
+        int enclosingCount = count;
+        List<Object> enclosingConstants = constants;
+        int enclosingFree = freeRegister;
+        int enclosingMax = maxRegister;
+        int enclosingLocals = localCount;
+        int enclosingTarget = target;
+
+        code = new int[64];
+        lines = new int[64];
+        count = 0;
+        constants = new ArrayList<>();
+        freeRegister = function.frameSize;
+        maxRegister = function.frameSize;
+        localCount = function.frameSize;
+
+        for (Stmt statement : function.body) {
+            compile(statement);
+        }
+        // If the body falls off the end, the function returns 'nil'.
+        emit(RegisterOp.RETURNNIL);
+        RegisterFunction compiled = finish(function.name.lexeme,
+            function.params.size(), function.capturedParams, function.upvalues);
+
+        code = enclosingCode;
+        lines = enclosingLines;
+        count = enclosingCount;
+        constants = enclosingConstants;
+        freeRegister = enclosingFree;
+        maxRegister = enclosingMax;
+        localCount = enclosingLocals;
+        target = enclosingTarget;
+        return compiled;
+    }
+
+    private RegisterFunction finish(String name, int arity,
+                                    int[] capturedParams, Upvalue[] upvalues) {
+        return new RegisterFunction(name, arity, maxRegister, capturedParams, upvalues,
+            Arrays.copyOf(code, count), Arrays.copyOf(lines, count), constants.toArray());
+    }
+
+    private int allocateRegister() {
+        int register = freeRegister++;
+        if (freeRegister > maxRegister) maxRegister = freeRegister;
+        return register;
+    }
+
+    private void emit(int opcode, int... operands) {
+        write(opcode);
+        for (int operand : operands) {
+            write(operand);
+        }
+    }
+
+    private void write(int value) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+            lines = Arrays.copyOf(lines, lines.length * 2);
+        }
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    /**
+     * Points the jump target at 'position' to the next instruction.
+     */
+    private void patchJump(int position) {
+        code[position] = count;
+    }
+
+    private int makeConstant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+}
@@ -0,0 +1,35 @@
+package com.lox;
+
+/**
+ * A function compiled for the register VM. Like Prototype, it is the
+ * shared, immutable part of a function; the VM pairs it with captured
+ * cells to make a closure.
+ */
+class RegisterFunction {
+    final String name;
+    final int arity;
+    final int registerCount;    // Locals plus the most temporaries in use
+    final int[] capturedParams; // Parameter slots to box into Cells on entry
+    final Upvalue[] upvalues;   // Where each captured cell comes from
+    final int[] code;
+    final int[] lines;          // The source line of each code position
+    final Object[] constants;
+
+    RegisterFunction(String name, int arity, int registerCount,
+                     int[] capturedParams, Upvalue[] upvalues,
+                     int[] code, int[] lines, Object[] constants) {
+        this.name = name;
+        this.arity = arity;
+        this.registerCount = registerCount;
+        this.capturedParams = capturedParams;
+        this.upvalues = upvalues;
+        this.code = code;
+        this.lines = lines;
+        this.constants = constants;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,75 @@
+package com.lox;
+
+/**
+ * The instruction set of the register VM.
+ *
+ * Code is an int[]: each instruction is an opcode followed by a fixed
+ * number of int operands. Registers are numbered from the start of the
+ * current frame, so a function's locals are simply its first registers
+ * and need no loads or stores. Temporaries live above the locals.
+ *
+ * Operands marked RK are either a register (>= 0) or a constant,
+ * encoded as ~index (< 0), so `i + 1` needs no separate load.
+ */
+final class RegisterOp {
+    private RegisterOp() {}
+
+    static final int MOVE       = 0;  // dst, src
+    static final int LOADK      = 1;  // dst, constant
+    static final int LOADNIL    = 2;  // dst
+    static final int LOADTRUE   = 3;  // dst
+    static final int LOADFALSE  = 4;  // dst
+
+    static final int GETCELL    = 5;  // dst, slot
+    static final int SETCELL    = 6;  // src, slot
+    static final int NEWCELL    = 7;  // slot, src
+    static final int GETUPVAL   = 8;  // dst, index
+    static final int SETUPVAL   = 9;  // src, index
+    static final int GETGLOBAL  = 10; // dst, name constant
+    static final int SETGLOBAL  = 11; // src, name constant
+    static final int DEFGLOBAL  = 12; // src, name constant
+
+    static final int ADD        = 13; // dst, RK, RK
+    static final int SUB        = 14; // dst, RK, RK
+    static final int MUL        = 15; // dst, RK, RK
+    static final int DIV        = 16; // dst, RK, RK
+    static final int EQ         = 17; // dst, RK, RK
+    static final int NE         = 18; // dst, RK, RK
+    static final int LT         = 19; // dst, RK, RK
+    static final int LE         = 20; // dst, RK, RK
+    static final int GT         = 21; // dst, RK, RK
+    static final int GE         = 22; // dst, RK, RK
+    static final int NOT        = 23; // dst, src
+    static final int NEG        = 24; // dst, src
+
+    static final int JMP        = 25; // target
+    static final int JMPF       = 26; // src, target: jump if falsey
+    static final int JMPT       = 27; // src, target: jump if truthy
+    // Fused compare-and-branch for loop and 'if' conditions:
+    // jump to target unless the comparison holds.
+    static final int JNLT       = 28; // RK, RK, target
+    static final int JNLE       = 29; // RK, RK, target
+    static final int JNGT       = 30; // RK, RK, target
+    static final int JNGE       = 31; // RK, RK, target
+
+    static final int PRINT      = 32; // src
+    static final int CALL       = 33; // callee register, argument count, dst
+    static final int CLOSURE    = 34; // dst, function constant
+    static final int RETURN     = 35; // src
+    static final int RETURNNIL  = 36;
+    // A call in a 'return': a closure replaces the current frame. Anything
+    // else is called like a CALL into the callee register, which the
+    // RETURN that follows returns.
+    static final int TAILCALL   = 37; // callee register, argument count
+
+    /**
+     * The number of operands each opcode takes.
+     */
+    static final int[] OPERANDS = {
+        2, 2, 1, 1, 1,
+        2, 2, 2, 2, 2, 2, 2, 2,
+        3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 2, 2,
+        1, 2, 2, 3, 3, 3, 3,
+        1, 3, 2, 1, 0, 2
+    };
+}
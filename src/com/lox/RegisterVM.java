@@ -0,0 +1,467 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A register-based virtual machine, selected with `--engine=register`.
+ *
+ * Where the stack VM pushes and pops every operand, instructions here
+ * name their operands directly: locals are registers in the current
+ * frame, so an arithmetic expression over locals is a single dispatch.
+ * Frames are windows of one shared register file, laid out like the
+ * stack VM's: a call's arguments are already in the first registers
+ * of the callee's frame.
+ */
+class RegisterVM implements Engine {
+    private static final Cell[] NO_UPVALUES = new Cell[0];
+    // A guard against runaway recursion.
+    private static final int FRAMES_MAX = 1 << 16;
+
+    /**
+     * A compiled function together with the cells it captured.
+     */
+    static class Closure {
+        final RegisterFunction function;
+        final Cell[] upvalues;
+
+        Closure(RegisterFunction function, Cell[] upvalues) {
+            this.function = function;
+            this.upvalues = upvalues;
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    /**
+     * An active call. 'returnTo' is the caller's register (as an absolute
+     * index into the register file) that receives the result.
+     */
+    private static class CallFrame {
+        Closure closure;
+        int pc;
+        int base;
+        int returnTo;
+    }
+
+    final Environment globals = new Environment();
+    private Object[] registers = new Object[1024];
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+
+    RegisterVM() {
+        Natives.define(globals);
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements, int frameSize) {
+        RegisterFunction script = new RegisterCompiler().compile(statements, frameSize);
+
+        try {
+            pushFrame(new Closure(script, NO_UPVALUES), 0, -1);
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        } finally {
+            Arrays.fill(registers, null);
+            frameCount = 0;
+        }
+    }
+
+    /**
+     * Sets up a frame for a call whose arguments start at 'base',
+     * boxing any parameters the function's closures capture.
+     */
+    private CallFrame pushFrame(Closure closure, int base, int returnTo) {
+        RegisterFunction function = closure.function;
+        if (frameCount == frames.length) {
+            if (frameCount == FRAMES_MAX) {
+                throw new RuntimeError(lineOf(frames[frameCount - 1]), "Stack overflow.");
+            }
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        if (base + function.registerCount > registers.length) {
+            registers = Arrays.copyOf(registers,
+                Math.max(base + function.registerCount, registers.length * 2));
+        }
+
+        CallFrame frame = frames[frameCount];
+        if (frame == null) frame = frames[frameCount] = new CallFrame();
+        frameCount++;
+        frame.closure = closure;
+        frame.pc = 0;
+        frame.base = base;
+        frame.returnTo = returnTo;
+
+        for (int slot : function.capturedParams) {
+            registers[base + slot] = new Cell(registers[base + slot]);
+        }
+        return frame;
+    }
+
+    /**
+     * The main dispatch loop. Runs until the script's frame returns.
+     */
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        Object[] r = registers;
+        int[] code = frame.closure.function.code;
+        Object[] k = frame.closure.function.constants;
+        Cell[] upvalues = frame.closure.upvalues;
+        int base = frame.base;
+        int pc = 0;
+
+        for (;;) {
+            switch (code[pc]) {
+                case RegisterOp.MOVE:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]];
+                    pc += 3;
+                    break;
+                case RegisterOp.LOADK:
+                    r[base + code[pc + 1]] = k[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case RegisterOp.LOADNIL:
+                    r[base + code[pc + 1]] = null;
+                    pc += 2;
+                    break;
+                case RegisterOp.LOADTRUE:
+                    r[base + code[pc + 1]] = true;
+                    pc += 2;
+                    break;
+                case RegisterOp.LOADFALSE:
+                    r[base + code[pc + 1]] = false;
+                    pc += 2;
+                    break;
+
+                case RegisterOp.GETCELL:
+                    r[base + code[pc + 1]] = ((Cell)r[base + code[pc + 2]]).value;
+                    pc += 3;
+                    break;
+                case RegisterOp.SETCELL:
+                    ((Cell)r[base + code[pc + 2]]).value = r[base + code[pc + 1]];
+                    pc += 3;
+                    break;
+                case RegisterOp.NEWCELL:
+                    r[base + code[pc + 1]] = new Cell(r[base + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case RegisterOp.GETUPVAL:
+                    r[base + code[pc + 1]] = upvalues[code[pc + 2]].value;
+                    pc += 3;
+                    break;
+                case RegisterOp.SETUPVAL:
+                    upvalues[code[pc + 2]].value = r[base + code[pc + 1]];
+                    pc += 3;
+                    break;
+                case RegisterOp.GETGLOBAL:
+                    r[base + code[pc + 1]] = globals.get((Token)k[code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case RegisterOp.SETGLOBAL:
+                    globals.assign((Token)k[code[pc + 2]], r[base + code[pc + 1]]);
+                    pc += 3;
+                    break;
+                case RegisterOp.DEFGLOBAL:
+                    globals.define((Symbol)k[code[pc + 2]], r[base + code[pc + 1]]);
+                    pc += 3;
+                    break;
+
+                case RegisterOp.ADD: {
+                    Object left = rk(r, k, base, code[pc + 2]);
+                    Object right = rk(r, k, base, code[pc + 3]);
+                    if (left instanceof Double && right instanceof Double) {
+                        r[base + code[pc + 1]] = (double)left + (double)right;
+                    } else {
+                        Object sum = Values.add(left, right);
+                        if (sum == null) {
+                            throw error(pc, "Operands must be two numbers or two strings.");
+                        }
+                        r[base + code[pc + 1]] = sum;
+                    }
+                    pc += 4;
+                    break;
+                }
+                case RegisterOp.SUB: {
+                    Object left = rk(r, k, base, code[pc + 2]);
+                    Object right = rk(r, k, base, code[pc + 3]);
+                    checkNumberOperands(pc, left, right);
+                    r[base + code[pc + 1]] = (double)left - (double)right;
+                    pc += 4;
+                    break;
+                }
+                case RegisterOp.MUL: {
+                    Object left = rk(r, k, base, code[pc + 2]);
+                    Object right = rk(r, k, base, code[pc + 3]);
+                    checkNumberOperands(pc, left, right);
+                    r[base + code[pc + 1]] = (double)left * (double)right;
+                    pc += 4;
+                    break;
+                }
+                case RegisterOp.DIV: {
+                    Object left = rk(r, k, base, code[pc + 2]);
+                    Object right = rk(r, k, base, code[pc + 3]);
+                    checkNumberOperands(pc, left, right);
+                    if ((double)right == 0.0) {
+                        throw error(pc, "Division by zero.");
+                    }
+                    r[base + code[pc + 1]] = (double)left / (double)right;
+                    pc += 4;
+                    break;
+                }
+                case RegisterOp.EQ:
+                    r[base + code[pc + 1]] = Values.isEqual(
+                        rk(r, k, base, code[pc + 2]), rk(r, k, base, code[pc + 3]));
+                    pc += 4;
+                    break;
+                case RegisterOp.NE:
+                    r[base + code[pc + 1]] = !Values.isEqual(
+                        rk(r, k, base, code[pc + 2]), rk(r, k, base, code[pc + 3]));
+                    pc += 4;
+                    break;
+                case RegisterOp.LT: {
+                    Object left = rk(r, k, base, code[pc + 2]);
+                    Object right = rk(r, k, base, code[pc + 3]);
+                    checkNumberOperands(pc, left, right);
+                    r[base + code[pc + 1]] = (double)left < (double)right;
+                    pc += 4;
+                    break;
+                }
+                case RegisterOp.LE: {
+                    Object left = rk(r, k, base, code[pc + 2]);
+                    Object right = rk(r, k, base, code[pc + 3]);
+                    checkNumberOperands(pc, left, right);
+                    r[base + code[pc + 1]] = (double)left <= (double)right;
+                    pc += 4;
+                    break;
+                }
+                case RegisterOp.GT: {
+                    Object left = rk(r, k, base, code[pc + 2]);
+                    Object right = rk(r, k, base, code[pc + 3]);
+                    checkNumberOperands(pc, left, right);
+                    r[base + code[pc + 1]] = (double)left > (double)right;
+                    pc += 4;
+                    break;
+                }
+                case RegisterOp.GE: {
+                    Object left = rk(r, k, base, code[pc + 2]);
+                    Object right = rk(r, k, base, code[pc + 3]);
+                    checkNumberOperands(pc, left, right);
+                    r[base + code[pc + 1]] = (double)left >= (double)right;
+                    pc += 4;
+                    break;
+                }
+                case RegisterOp.NOT:
+                    r[base + code[pc + 1]] = !Values.isTruthy(r[base + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case RegisterOp.NEG: {
+                    Object operand = r[base + code[pc + 2]];
+                    if (!(operand instanceof Double)) {
+                        throw error(pc, "Operand must be a number.");
+                    }
+                    r[base + code[pc + 1]] = -(double)operand;
+                    pc += 3;
+                    break;
+                }
+
+                case RegisterOp.JMP:
+                    pc = code[pc + 1];
+                    break;
+                case RegisterOp.JMPF:
+                    pc = Values.isTruthy(r[base + code[pc + 1]]) ? pc + 3 : code[pc + 2];
+                    break;
+                case RegisterOp.JMPT:
+                    pc = Values.isTruthy(r[base + code[pc + 1]]) ? code[pc + 2] : pc + 3;
+                    break;
+                case RegisterOp.JNLT: {
+                    Object left = rk(r, k, base, code[pc + 1]);
+                    Object right = rk(r, k, base, code[pc + 2]);
+                    checkNumberOperands(pc, left, right);
+                    pc = (double)left < (double)right ? pc + 4 : code[pc + 3];
+                    break;
+                }
+                case RegisterOp.JNLE: {
+                    Object left = rk(r, k, base, code[pc + 1]);
+                    Object right = rk(r, k, base, code[pc + 2]);
+                    checkNumberOperands(pc, left, right);
+                    pc = (double)left <= (double)right ? pc + 4 : code[pc + 3];
+                    break;
+                }
+                case RegisterOp.JNGT: {
+                    Object left = rk(r, k, base, code[pc + 1]);
+                    Object right = rk(r, k, base, code[pc + 2]);
+                    checkNumberOperands(pc, left, right);
+                    pc = (double)left > (double)right ? pc + 4 : code[pc + 3];
+                    break;
+                }
+                case RegisterOp.JNGE: {
+                    Object left = rk(r, k, base, code[pc + 1]);
+                    Object right = rk(r, k, base, code[pc + 2]);
+                    checkNumberOperands(pc, left, right);
+                    pc = (double)left >= (double)right ? pc + 4 : code[pc + 3];
+                    break;
+                }
+
+                case RegisterOp.PRINT:
+                    System.out.println(Values.stringify(r[base + code[pc + 1]]));
+                    pc += 2;
+                    break;
+
+                case RegisterOp.CALL: {
+                    int calleeRegister = base + code[pc + 1];
+                    int argCount = code[pc + 2];
+                    int returnTo = base + code[pc + 3];
+                    Object callee = r[calleeRegister];
+
+                    if (callee instanceof Closure) {
+                        Closure closure = (Closure)callee;
+                        checkArity(pc, closure.function.arity, argCount);
+
+                        // Save the caller's position and switch to the callee.
+                        // While the frame is pushed, the caller's pc still
+                        // points at the call, for the overflow error's line.
+                        CallFrame caller = frame;
+                        caller.pc = pc;
+                        frame = pushFrame(closure, calleeRegister + 1, returnTo);
+                        caller.pc = pc + 4;
+                        r = registers;
+                        code = closure.function.code;
+                        k = closure.function.constants;
+                        upvalues = closure.upvalues;
+                        base = frame.base;
+                        pc = 0;
+                        break;
+                    }
+
+                    r[returnTo] = callNative(pc, calleeRegister, argCount);
+                    pc += 4;
+                    break;
+                }
+                case RegisterOp.TAILCALL: {
+                    int calleeRegister = base + code[pc + 1];
+                    int argCount = code[pc + 2];
+                    Object callee = r[calleeRegister];
+
+                    if (callee instanceof Closure) {
+                        Closure closure = (Closure)callee;
+                        checkArity(pc, closure.function.arity, argCount);
+
+                        // Move the arguments down to the start of this
+                        // frame, and reuse it for the callee.
+                        System.arraycopy(r, calleeRegister + 1, r, base, argCount);
+                        Arrays.fill(r, base + argCount,
+                            base + frame.closure.function.registerCount, null);
+                        frameCount--;
+                        frame = pushFrame(closure, base, frame.returnTo);
+                        r = registers;
+                        code = closure.function.code;
+                        k = closure.function.constants;
+                        upvalues = closure.upvalues;
+                        pc = 0;
+                        break;
+                    }
+
+                    // The RETURN that follows returns the result.
+                    r[calleeRegister] = callNative(pc, calleeRegister, argCount);
+                    pc += 3;
+                    break;
+                }
+                case RegisterOp.CLOSURE: {
+                    RegisterFunction function = (RegisterFunction)k[code[pc + 2]];
+                    Cell[] cells = NO_UPVALUES;
+                    if (function.upvalues.length > 0) {
+                        cells = new Cell[function.upvalues.length];
+                        for (int i = 0; i < cells.length; i++) {
+                            Upvalue upvalue = function.upvalues[i];
+                            cells[i] = upvalue.isLocal
+                                ? (Cell)r[base + upvalue.index]
+                                : upvalues[upvalue.index];
+                        }
+                    }
+                    r[base + code[pc + 1]] = new Closure(function, cells);
+                    pc += 3;
+                    break;
+                }
+                case RegisterOp.RETURN:
+                case RegisterOp.RETURNNIL: {
+                    Object result = code[pc] == RegisterOp.RETURN
+                        ? r[base + code[pc + 1]] : null;
+                    int returnTo = frame.returnTo;
+                    frameCount--;
+                    // Clear the finished frame so the register file
+                    // doesn't keep dead values alive.
+                    Arrays.fill(r, base, base + frame.closure.function.registerCount, null);
+                    if (frameCount == 0) return;
+
+                    r[returnTo] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.code;
+                    k = frame.closure.function.constants;
+                    upvalues = frame.closure.upvalues;
+                    base = frame.base;
+                    pc = frame.pc;
+                    break;
+                }
+                default:
+                    throw error(pc, "Unknown opcode " + code[pc] + ".");
+            }
+        }
+    }
+
+    // --- VM Helper Methods ---
+
+    /**
+     * Calls anything that isn't a closure, such as a native, with the
+     * arguments in the registers after 'calleeRegister'.
+     */
+    private Object callNative(int pc, int calleeRegister, int argCount) {
+        Object callee = registers[calleeRegister];
+        if (!(callee instanceof LoxCallable)) {
+            throw error(pc, "Can only call functions and classes.");
+        }
+
+        // Natives don't use the interpreter argument, so there is none
+        // to pass.
+        LoxCallable function = (LoxCallable)callee;
+        checkArity(pc, function.arity(), argCount);
+        List<Object> arguments = new ArrayList<>(argCount);
+        for (int i = 1; i <= argCount; i++) {
+            arguments.add(registers[calleeRegister + i]);
+        }
+        return function.call(null, arguments);
+    }
+
+    /**
+     * Reads an RK operand: a register, or a constant encoded as ~index.
+     */
+    private static Object rk(Object[] registers, Object[] constants, int base, int operand) {
+        return operand >= 0 ? registers[base + operand] : constants[~operand];
+    }
+
+    private void checkNumberOperands(int pc, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw error(pc, "Operands must be numbers.");
+    }
+
+    private void checkArity(int pc, int arity, int argCount) {
+        if (argCount == arity) return;
+        throw error(pc, "Expected " + arity +
+            " arguments but got " + argCount + ".");
+    }
+
+    /**
+     * Creates a runtime error for the running frame's instruction at 'pc'.
+     */
+    private RuntimeError error(int pc, String message) {
+        return new RuntimeError(frames[frameCount - 1].closure.function.lines[pc], message);
+    }
+
+    private int lineOf(CallFrame frame) {
+        return frame.closure.function.lines[frame.pc];
+    }
+}
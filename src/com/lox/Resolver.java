@@ -0,0 +1,626 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The Resolver is a static pass that runs after the Parser and
+ * before the Interpreter.
+ *
+ * It walks the AST once and works out where every variable lives at
+ * runtime, so the Interpreter never has to search for a name:
+ *
+ * - Each function call gets one flat frame. Every parameter and every
+ *   local declared anywhere in the function body (including nested
+ *   blocks) is given a slot in that frame.
+ * - A local that is used by a nested function is "captured". Only
+ *   captured locals are boxed into a Cell, so the closure can share the
+ *   variable after the frame is gone. Every other local is a plain slot.
+ * - A nested function records which cells it needs (its "upvalues"),
+ *   either straight from the enclosing frame or from the enclosing
+ *   function's own upvalues.
+ *
+ * Variables that are not found in any local scope are assumed to be
+ * globals and are left unresolved, so they are still looked up by name.
+ * This keeps the REPL and forward references to top-level functions
+ * working.
+ *
+ * A nested function may also refer to a local that its enclosing block
+ * only declares further down, since it doesn't run until it's called.
+ * So every block's declarations get their slots when the block opens,
+ * and a local that's captured before its declaration has its Cell
+ * created at the top of the block instead (see hoist()).
+ *
+ * Declaring a name again in the same scope reuses its slot, so the
+ * closures that already captured it see the new value.
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    /**
+     * Tracks whether we are currently inside a function body,
+     * so that a stray 'return' at the top level can be reported.
+     */
+    private enum FunctionType {
+        NONE,
+        FUNCTION
+    }
+
+    /**
+     * A local variable declared in some block or function scope.
+     */
+    private static class Local {
+        final int slot;
+        Stmt declaration; // The 'let' or function, or null for a parameter
+        boolean declared = false; // False while only given a slot ahead of time
+        boolean captured = false;
+        // Whether a nested function captured it before its declaration.
+        boolean forward = false;
+        // References resolved so far, updated if the local is captured later.
+        final List<Expr> uses = new ArrayList<>();
+
+        Local(int slot, Stmt declaration) {
+            this.slot = slot;
+            this.declaration = declaration;
+        }
+    }
+
+    /**
+     * A block or function body scope.
+     */
+    private static class Scope {
+        final int start; // The first slot, freed again when the scope ends
+        // The locals declared so far, by name.
+        final Map<Symbol, Local> locals = new HashMap<>();
+        // The locals the scope's statements declare further down.
+        final Map<Symbol, Local> ahead = new HashMap<>();
+        // Cells to create when the scope is entered, for forward locals,
+        // and the statements that declared those locals, rewritten.
+        final List<Stmt> hoisted = new ArrayList<>();
+        final Map<Stmt, Stmt> rewritten = new HashMap<>();
+
+        Scope(int start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * The state for one function being resolved. The top-level script
+     * is treated as a function too, so that locals in top-level blocks
+     * also live in a frame.
+     */
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        // A stack of block scopes.
+        final List<Scope> scopes = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int nextSlot = 0;  // The next free slot in the frame
+        int frameSize = 0; // The most slots in use at any point
+
+        FunctionScope(FunctionScope enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private FunctionScope current = new FunctionScope(null);
+    private FunctionType currentFunction = FunctionType.NONE;
+
+    // The globals declared so far, and the natives, which a local
+    // captured before its declaration starts out holding (see hoist()).
+    private final Set<Symbol> globals = new HashSet<>();
+    private final Environment natives = new Environment();
+
+    Resolver() {
+        Natives.define(natives);
+    }
+
+    /**
+     * Main entry point. Resolves a list of top-level statements.
+     * @return The number of frame slots the top-level code needs.
+     */
+    int resolve(List<Stmt> statements) {
+        resolveAll(statements);
+        return current.frameSize;
+    }
+
+    private void resolveAll(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    // --- Statement Visitor Implementations ---
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope(stmt.statements);
+        resolveAll(stmt.statements);
+        endScope(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // The name is declared before the body is resolved so that
+        // the function can refer to itself recursively.
+        Local local = declare(stmt.name, stmt);
+        if (local == null) {
+            globals.add(stmt.name.symbol);
+        } else if (local.declaration != stmt) {
+            redeclare(local, stmt);
+        } else {
+            stmt.slot = local.slot;
+            if (local.forward) hoist(local, stmt);
+        }
+        resolveFunction(stmt, FunctionType.FUNCTION);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            Lox.error(stmt.keyword, "Can't return from top-level code.");
+        }
+        if (stmt.value != null) resolve(stmt.value);
+        stmt.tailCall = stmt.value instanceof Expr.Call;
+        return null;
+    }
+
+    @Override
+    public Void visitLetStmt(Stmt.Let stmt) {
+        // The initializer is resolved *before* the name is declared,
+        // so `let a = a;` refers to an outer 'a', just like the
+        // Interpreter does when it evaluates the initializer first.
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        Local local = declare(stmt.name, stmt);
+        if (local == null) {
+            globals.add(stmt.name.symbol);
+        } else if (local.declaration != stmt) {
+            redeclare(local, stmt);
+        } else {
+            stmt.slot = local.slot;
+            if (local.forward) hoist(local, stmt);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    // --- Expression Visitor Implementations ---
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+
+        Local target = findVariable(current, expr.name);
+        if (target != null && target.declaration instanceof Stmt.Let) {
+            ((Stmt.Let)target.declaration).assigned = true;
+        }
+
+        Local local = findLocal(current, expr.name, false);
+        if (local != null) {
+            local.uses.add(expr);
+            expr.binding = local.captured ? Binding.CELL : Binding.LOCAL;
+            expr.slot = local.slot;
+            return null;
+        }
+
+        int upvalue = resolveUpvalue(current, expr.name);
+        if (upvalue >= 0) {
+            expr.binding = Binding.UPVALUE;
+            expr.slot = upvalue;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        // Only made by the Optimizer, after resolving.
+        resolve(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        Local local = findLocal(current, expr.name, false);
+        if (local != null) {
+            local.uses.add(expr);
+            expr.binding = local.captured ? Binding.CELL : Binding.LOCAL;
+            expr.slot = local.slot;
+            return null;
+        }
+
+        int upvalue = resolveUpvalue(current, expr.name);
+        if (upvalue >= 0) {
+            expr.binding = Binding.UPVALUE;
+            expr.slot = upvalue;
+        }
+        return null;
+    }
+
+    // --- Resolver Helper Methods ---
+
+    /**
+     * Resolves the parameters and body of a function in a new frame.
+     * Parameters take the first slots, in order.
+     */
+    private void resolveFunction(Stmt.Function function, FunctionType type) {
+        FunctionType enclosingFunction = currentFunction;
+        currentFunction = type;
+        current = new FunctionScope(current);
+
+        beginScope(null);
+        List<Local> params = new ArrayList<>();
+        for (Token param : function.params) {
+            params.add(declare(param, null));
+        }
+        declareAhead(function.body);
+        resolveAll(function.body);
+        endScope(function.body);
+
+        // Parameters that a nested function captured need to be boxed
+        // when the call binds them.
+        List<Integer> captured = new ArrayList<>();
+        for (Local param : params) {
+            if (param.captured) captured.add(param.slot);
+        }
+
+        function.frameSize = current.frameSize;
+        function.capturedParams = captured.stream().mapToInt(Integer::intValue).toArray();
+        function.upvalues = current.upvalues.toArray(new Upvalue[0]);
+
+        current = current.enclosing;
+        currentFunction = enclosingFunction;
+    }
+
+    /**
+     * Opens a scope for a block's statements, or for a function's
+     * parameters if 'statements' is null.
+     */
+    private void beginScope(List<Stmt> statements) {
+        current.scopes.add(new Scope(current.nextSlot));
+        if (statements != null) declareAhead(statements);
+    }
+
+    /**
+     * Closes the innermost scope. Its slots are free for the next
+     * sibling scope to reuse: anything a closure still needs has
+     * already been moved into a Cell.
+     */
+    private void endScope(List<Stmt> statements) {
+        Scope scope = current.scopes.remove(current.scopes.size() - 1);
+        current.nextSlot = scope.start;
+
+        if (scope.rewritten.isEmpty()) return;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt rewritten = scope.rewritten.get(statements.get(i));
+            if (rewritten != null) statements.set(i, rewritten);
+        }
+        statements.addAll(0, scope.hoisted);
+    }
+
+    private Scope currentScope() {
+        return current.scopes.get(current.scopes.size() - 1);
+    }
+
+    /**
+     * Gives a slot to each variable and function the statements
+     * declare, before any of them are resolved, so a nested function
+     * can capture one that's only declared after it.
+     */
+    private void declareAhead(List<Stmt> statements) {
+        Scope scope = currentScope();
+        for (Stmt statement : statements) {
+            Token name;
+            if (statement instanceof Stmt.Let) {
+                name = ((Stmt.Let)statement).name;
+            } else if (statement instanceof Stmt.Function) {
+                name = ((Stmt.Function)statement).name;
+            } else {
+                continue;
+            }
+            if (scope.locals.containsKey(name.symbol) || scope.ahead.containsKey(name.symbol)) {
+                continue; // Declared again, in the same slot
+            }
+            scope.ahead.put(name.symbol, new Local(current.nextSlot++, statement));
+        }
+        current.frameSize = Math.max(current.frameSize, current.nextSlot);
+    }
+
+    /**
+     * Adds a variable to the innermost local scope, in the slot it was
+     * given ahead of time or in a new one. Redeclaring a name in the
+     * same scope gives back the variable already there, except for a
+     * repeated parameter, which takes its own slot.
+     * @return The variable, or null if it is a global.
+     */
+    private Local declare(Token name, Stmt declaration) {
+        if (current.scopes.isEmpty()) return null; // Globals are resolved dynamically.
+
+        Scope scope = currentScope();
+        Local local = null;
+        if (declaration != null) {
+            local = scope.locals.get(name.symbol);
+            if (local != null) return local;
+            local = scope.ahead.remove(name.symbol);
+        }
+        if (local == null) {
+            local = new Local(current.nextSlot++, declaration);
+            current.frameSize = Math.max(current.frameSize, current.nextSlot);
+        }
+        local.declared = true;
+        scope.locals.put(name.symbol, local);
+        return local;
+    }
+
+    /**
+     * Makes a local that was captured before its declaration live in a
+     * Cell from the top of its block, since the closures that captured
+     * it are created before the declaration runs. The declaration then
+     * stores into that Cell instead of making its own.
+     *
+     * Until then, the Cell holds the value of the variable the name
+     * meant outside the block, if there is one, so a closure called
+     * before the declaration still reads that.
+     */
+    private void hoist(Local local, Stmt declaration) {
+        Scope scope = currentScope();
+        Token name = declaration instanceof Stmt.Let
+            ? ((Stmt.Let)declaration).name : ((Stmt.Function)declaration).name;
+
+        Stmt.Let cell = new Stmt.Let(name, outer(name));
+        cell.slot = local.slot;
+        cell.captured = true;
+        cell.assigned = true;
+        local.declaration = cell;
+        scope.hoisted.add(cell);
+
+        Expr value;
+        Stmt rewritten;
+        if (declaration instanceof Stmt.Let) {
+            value = ((Stmt.Let)declaration).initializer;
+            if (value == null) value = new Expr.Literal(null);
+            rewritten = new Stmt.Expression(store(name, local, value));
+        } else {
+            // The function goes in a free slot and is copied from there.
+            Stmt.Function function = (Stmt.Function)declaration;
+            function.slot = current.nextSlot;
+            function.captured = false;
+            current.frameSize = Math.max(current.frameSize, current.nextSlot + 1);
+
+            Expr.Variable closure = new Expr.Variable(name);
+            closure.binding = Binding.LOCAL;
+            closure.slot = function.slot;
+            rewritten = new Stmt.Block(new ArrayList<>(List.of(
+                function, new Stmt.Expression(store(name, local, closure)))));
+        }
+        scope.rewritten.put(declaration, rewritten);
+    }
+
+    /**
+     * Resolves a read of the variable a name means outside the innermost
+     * scope, as the scope is entered.
+     * @return The read, or null if there's no such variable.
+     */
+    private Expr outer(Token name) {
+        Scope scope = current.scopes.remove(current.scopes.size() - 1);
+        Expr.Variable variable = new Expr.Variable(name);
+        resolve(variable);
+        current.scopes.add(scope);
+
+        if (variable.binding == Binding.GLOBAL && !globals.contains(name.symbol) &&
+                natives.find(name.symbol) == null) {
+            return null;
+        }
+        return variable;
+    }
+
+    /**
+     * Turns a declaration of a name the scope already declared into an
+     * assignment to that variable.
+     */
+    private void redeclare(Local local, Stmt declaration) {
+        if (local.declaration instanceof Stmt.Let) {
+            ((Stmt.Let)local.declaration).assigned = true;
+        }
+
+        Token name;
+        Expr value;
+        Stmt rewritten;
+        if (declaration instanceof Stmt.Let) {
+            Stmt.Let let = (Stmt.Let)declaration;
+            name = let.name;
+            value = let.initializer != null ? let.initializer : new Expr.Literal(null);
+            rewritten = new Stmt.Expression(assign(name, local, value));
+        } else {
+            // The function goes in a free slot and is copied from there.
+            Stmt.Function function = (Stmt.Function)declaration;
+            name = function.name;
+            function.slot = current.nextSlot;
+            current.frameSize = Math.max(current.frameSize, current.nextSlot + 1);
+
+            Expr.Variable closure = new Expr.Variable(name);
+            closure.binding = Binding.LOCAL;
+            closure.slot = function.slot;
+            rewritten = new Stmt.Block(new ArrayList<>(List.of(
+                function, new Stmt.Expression(assign(name, local, closure)))));
+        }
+        currentScope().rewritten.put(declaration, rewritten);
+    }
+
+    private Expr.Assign assign(Token name, Local local, Expr value) {
+        Expr.Assign assign = new Expr.Assign(name, value);
+        local.uses.add(assign);
+        assign.binding = local.captured ? Binding.CELL : Binding.LOCAL;
+        assign.slot = local.slot;
+        return assign;
+    }
+
+    private Expr.Assign store(Token name, Local local, Expr value) {
+        Expr.Assign assign = new Expr.Assign(name, value);
+        assign.binding = Binding.CELL;
+        assign.slot = local.slot;
+        return assign;
+    }
+
+    /**
+     * Finds the innermost local with the given name in a function's
+     * own scopes, or null if it isn't declared there.
+     * @param ahead Whether to also look at locals declared later on,
+     *              for a reference from a nested function.
+     */
+    private Local findLocal(FunctionScope function, Token name, boolean ahead) {
+        for (int i = function.scopes.size() - 1; i >= 0; i--) {
+            Scope scope = function.scopes.get(i);
+            Local local = scope.locals.get(name.symbol);
+            if (local != null) return local;
+            if (!ahead) continue;
+            local = scope.ahead.get(name.symbol);
+            if (local != null) return local;
+        }
+        return null;
+    }
+
+    /**
+     * Finds the local a name refers to, in 'function' or any function
+     * enclosing it, or null if it's a global.
+     */
+    private Local findVariable(FunctionScope function, Token name) {
+        for (boolean ahead = false; function != null; function = function.enclosing, ahead = true) {
+            Local local = findLocal(function, name, ahead);
+            if (local != null) return local;
+        }
+        return null;
+    }
+
+    /**
+     * Looks for a variable in the functions enclosing 'function' and,
+     * if found, threads it through each function in between as an upvalue.
+     * @return The upvalue index in 'function', or -1 if it's a global.
+     */
+    private int resolveUpvalue(FunctionScope function, Token name) {
+        if (function.enclosing == null) return -1;
+
+        Local local = findLocal(function.enclosing, name, true);
+        if (local != null) {
+            if (!local.declared) local.forward = true;
+            markCaptured(local);
+            return addUpvalue(function, true, local.slot);
+        }
+
+        int upvalue = resolveUpvalue(function.enclosing, name);
+        if (upvalue >= 0) {
+            return addUpvalue(function, false, upvalue);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionScope function, boolean isLocal, int index) {
+        for (int i = 0; i < function.upvalues.size(); i++) {
+            Upvalue upvalue = function.upvalues.get(i);
+            if (upvalue.isLocal == isLocal && upvalue.index == index) return i;
+        }
+        function.upvalues.add(new Upvalue(isLocal, index));
+        return function.upvalues.size() - 1;
+    }
+
+    /**
+     * Switches a local over to living in a Cell, including the
+     * references to it that were resolved before we knew.
+     */
+    private void markCaptured(Local local) {
+        if (local.captured) return;
+        local.captured = true;
+
+        if (local.declaration instanceof Stmt.Let) {
+            ((Stmt.Let)local.declaration).captured = true;
+        } else if (local.declaration instanceof Stmt.Function) {
+            ((Stmt.Function)local.declaration).captured = true;
+        }
+
+        for (Expr use : local.uses) {
+            if (use instanceof Expr.Variable) {
+                ((Expr.Variable)use).binding = Binding.CELL;
+            } else if (use instanceof Expr.Assign) {
+                ((Expr.Assign)use).binding = Binding.CELL;
+            }
+        }
+    }
+}
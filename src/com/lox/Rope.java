@@ -0,0 +1,89 @@
+package com.lox;
+
+/**
+ * A long Lox string made by concatenation (see Values.add()). It's another
+ * representation of the same string, like a Long is of a number: every
+ * engine prints it, compares it and hashes it by its text.
+ *
+ * Concatenating Java Strings copies both of them, so a loop that builds
+ * a string with `s = s + piece` takes time quadratic in its length. A
+ * rope keeps its text in a StringBuilder instead, and appending to the
+ * rope that ends at the builder's end appends in place: the new rope
+ * shares the builder, with a longer length, and the old one is still its
+ * prefix. Appending to an older rope, which would overwrite text another
+ * rope still owns, copies it into a builder of its own.
+ *
+ * The text is only made into a String (and cached) when it's needed as
+ * one, to be printed or compared.
+ */
+final class Rope implements CharSequence {
+    // Shorter strings are concatenated as Strings; copying them is cheap.
+    static final int MIN_LENGTH = 256;
+
+    // Shared by the ropes that are prefixes of one another.
+    private final StringBuilder builder;
+    private final int length;
+    // The text as a String, once something has needed it.
+    private String flat;
+
+    private Rope(StringBuilder builder, int length) {
+        this.builder = builder;
+        this.length = length;
+    }
+
+    /**
+     * Concatenates two strings, each a String or a Rope.
+     * @return A String if the result is short, and a Rope otherwise.
+     */
+    static Object concat(CharSequence left, CharSequence right) {
+        int length = left.length() + right.length();
+        if (length < MIN_LENGTH) return left.toString() + right.toString();
+
+        if (left instanceof Rope) {
+            Rope rope = (Rope)left;
+            if (rope.length == rope.builder.length()) {
+                // Nothing has been appended after this rope yet.
+                rope.builder.append(right.toString());
+                return new Rope(rope.builder, length);
+            }
+        }
+        StringBuilder builder = new StringBuilder(length + MIN_LENGTH);
+        builder.append(left.toString()).append(right.toString());
+        return new Rope(builder, length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        return builder.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flat = builder.substring(0, length);
+        return flat;
+    }
+
+    // Ropes are compared by their text, so they work as keys (as in
+    // MemoCache) like Strings do.
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Rope && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -1,14 +1,30 @@
 package com.lox;
 
+import java.util.List;
+
 /**
  * A custom exception to represent an error that
  * occurs at runtime (during interpretation).
  */
 class RuntimeError extends RuntimeException {
     final Token token;
+    final int line;
+    // The Lox call stack where the error happened, innermost call first,
+    // from engines that keep one (see VM). Printed with `--stack-trace`.
+    List<String> trace;
 
     RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+        this.line = token != null ? token.line : 0;
+    }
+
+    /**
+     * For engines that only keep line numbers, not tokens, at runtime.
+     */
+    RuntimeError(int line, String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
     }
 }
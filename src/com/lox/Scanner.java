@@ -11,36 +11,43 @@ import java.util.Map;
  */
 class Scanner {
     private final String source;
+    // Whether whole numbers are scanned as Longs (see Engine.integers()).
+    private final boolean integers;
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0;   // Start of the current lexeme
     private int current = 0; // Current character being scanned
     private int line = 1;    // Current line number
 
-    private static final Map<String, TokenType> keywords;
+    private static final Map<Symbol, TokenType> keywords;
 
     // A map of all reserved keywords
     static {
         keywords = new HashMap<>();
-        keywords.put("and",    TokenType.AND);
-        keywords.put("class",  TokenType.CLASS);
-        keywords.put("else",   TokenType.ELSE);
-        keywords.put("false",  TokenType.FALSE);
-        keywords.put("for",    TokenType.FOR);
-        keywords.put("function", TokenType.FUNCTION);
-        keywords.put("if",     TokenType.IF);
-        keywords.put("nil",    TokenType.NIL);
-        keywords.put("or",     TokenType.OR);
-        keywords.put("print",  TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super",  TokenType.SUPER);
-        keywords.put("this",   TokenType.THIS);
-        keywords.put("true",   TokenType.TRUE);
-        keywords.put("let",    TokenType.LET); // From your examples
-        keywords.put("while",  TokenType.WHILE);
+        keywords.put(Symbol.of("and"),    TokenType.AND);
+        keywords.put(Symbol.of("class"),  TokenType.CLASS);
+        keywords.put(Symbol.of("else"),   TokenType.ELSE);
+        keywords.put(Symbol.of("false"),  TokenType.FALSE);
+        keywords.put(Symbol.of("for"),    TokenType.FOR);
+        keywords.put(Symbol.of("function"), TokenType.FUNCTION);
+        keywords.put(Symbol.of("if"),     TokenType.IF);
+        keywords.put(Symbol.of("nil"),    TokenType.NIL);
+        keywords.put(Symbol.of("or"),     TokenType.OR);
+        keywords.put(Symbol.of("print"),  TokenType.PRINT);
+        keywords.put(Symbol.of("return"), TokenType.RETURN);
+        keywords.put(Symbol.of("super"),  TokenType.SUPER);
+        keywords.put(Symbol.of("this"),   TokenType.THIS);
+        keywords.put(Symbol.of("true"),   TokenType.TRUE);
+        keywords.put(Symbol.of("let"),    TokenType.LET); // From your examples
+        keywords.put(Symbol.of("while"),  TokenType.WHILE);
     }
 
     Scanner(String source) {
+        this(source, false);
+    }
+
+    Scanner(String source, boolean integers) {
         this.source = source;
+        this.integers = integers;
     }
 
     /**
@@ -134,10 +141,16 @@ class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text); // Check if it's a keyword
-        if (type == null) type = TokenType.IDENTIFIER; // Otherwise, it's a user-defined identifier
-        addToken(type);
+        // Keywords are interned too, so one lookup tells them apart
+        // and a name that's been seen before allocates nothing.
+        Symbol symbol = Symbol.intern(source, start, current);
+        TokenType type = keywords.get(symbol); // Check if it's a keyword
+        if (type == null) {
+            // Otherwise, it's a user-defined identifier
+            tokens.add(new Token(TokenType.IDENTIFIER, symbol.name, null, line, symbol));
+        } else {
+            tokens.add(new Token(type, symbol.name, null, line, null));
+        }
     }
 
     /**
@@ -147,14 +160,20 @@ class Scanner {
         while (isDigit(peek())) advance();
 
         // Look for a fractional part
+        boolean whole = true;
         if (peek() == '.' && isDigit(peekNext())) {
             // Consume the "."
             advance();
             while (isDigit(peek())) advance();
+            whole = false;
         }
 
-        addToken(TokenType.NUMBER,
-            Double.parseDouble(source.substring(start, current)));
+        double value = Double.parseDouble(source.substring(start, current));
+        if (integers && whole && value <= Values.MAX_INTEGER) {
+            addToken(TokenType.NUMBER, Values.box((long)value));
+        } else {
+            addToken(TokenType.NUMBER, value);
+        }
     }
 
     /**
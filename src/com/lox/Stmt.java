@@ -67,6 +67,17 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    // Filled in by the Resolver. A slot of -1 means 'global'.
+    int slot = -1;
+    boolean captured;       // Whether the name's slot holds a Cell
+    int frameSize;          // Slots for the parameters and every local in the body
+    int[] capturedParams;   // Parameter slots that must be boxed into Cells
+    Upvalue[] upvalues;     // The enclosing variables this function captures
+    // Used by the Interpreter when its JIT is enabled.
+    int calls;              // How many times the function has been called
+    JitCode compiled;       // The compiled body, once the function is hot
+    // Set by the EffectAnalyzer for pure functions, with `--memoize`.
+    MemoCache memo;
 
     Function(Token name, List<Token> params, List<Stmt> body) {
       this.name = name;
@@ -122,6 +133,9 @@ abstract class Stmt {
   static class Return extends Stmt {
     final Token keyword;
     final Expr value; // Can be null
+    // Set by the Resolver when the value is a call, which can then run
+    // in place of the returning function instead of on top of it.
+    boolean tailCall;
 
     Return(Token keyword, Expr value) {
       this.keyword = keyword;
@@ -140,6 +154,10 @@ abstract class Stmt {
   static class Let extends Stmt {
     final Token name;
     final Expr initializer; // Can be null
+    // Filled in by the Resolver. A slot of -1 means 'global'.
+    int slot = -1;
+    boolean captured; // Whether the slot holds a Cell
+    boolean assigned; // Whether the variable is ever assigned (locals only)
 
     Let(Token name, Expr initializer) {
       this.name = name;
@@ -158,6 +176,9 @@ abstract class Stmt {
   static class While extends Stmt {
     final Expr condition;
     final Stmt body;
+    // Set by the Optimizer when the loop steps a local by a constant,
+    // so the Interpreter can keep the counter unboxed.
+    CountingLoop counting;
 
     While(Expr condition, Stmt body) {
       this.condition = condition;
@@ -0,0 +1,78 @@
+package com.lox;
+
+/**
+ * An interned identifier: there's exactly one Symbol for each name, so
+ * names can be compared by identity, and each keeps its hash code, so
+ * the maps keyed by them (the Resolver's scopes, the globals) never hash
+ * a string.
+ *
+ * Symbols are interned for good, in one table shared by every Scanner,
+ * since the globals outlive a single run (in the REPL, say). The Scanner
+ * looks an identifier up by its characters in the source, so a name that
+ * has been seen before doesn't cost a new String.
+ */
+final class Symbol {
+    final String name;
+    private final int hash;
+
+    // Open addressing, at most half full.
+    private static Symbol[] table = new Symbol[256];
+    private static int count = 0;
+
+    private Symbol(String name, int hash) {
+        this.name = name;
+        this.hash = hash;
+    }
+
+    static Symbol of(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Finds or creates the Symbol for the characters of 'source' from
+     * 'start' up to 'end'.
+     */
+    static Symbol intern(String source, int start, int end) {
+        // The same hash as String.hashCode().
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + source.charAt(i);
+
+        int mask = table.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        for (Symbol symbol; (symbol = table[index]) != null; index = (index + 1) & mask) {
+            if (symbol.hash == hash && symbol.name.length() == end - start &&
+                    source.startsWith(symbol.name, start)) {
+                return symbol;
+            }
+        }
+
+        Symbol symbol = new Symbol(source.substring(start, end), hash);
+        table[index] = symbol;
+        if (++count * 2 > table.length) grow();
+        return symbol;
+    }
+
+    private static void grow() {
+        Symbol[] old = table;
+        table = new Symbol[old.length * 2];
+        int mask = table.length - 1;
+        for (Symbol symbol : old) {
+            if (symbol == null) continue;
+            int index = (symbol.hash ^ (symbol.hash >>> 16)) & mask;
+            while (table[index] != null) index = (index + 1) & mask;
+            table[index] = symbol;
+        }
+    }
+
+    // equals() is identity, which is all it needs to be.
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
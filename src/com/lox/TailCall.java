@@ -0,0 +1,16 @@
+package com.lox;
+
+/**
+ * A call made by a 'return', handed back to the caller to make instead
+ * (by the lambda engine and compiled code). The caller runs it in a
+ * loop, so a chain of tail calls takes constant Java stack space.
+ */
+final class TailCall {
+    final LoxCallable callee;
+    final Object[] arguments;
+
+    TailCall(LoxCallable callee, Object[] arguments) {
+        this.callee = callee;
+        this.arguments = arguments;
+    }
+}
@@ -4,18 +4,26 @@ package com.lox;
  * A data class representing a single Token.
  * It stores the token's type, its original string (lexeme),
  * its literal value (if any), and the line number it appeared on.
+ * An identifier also has its interned Symbol.
  */
 class Token {
     final TokenType type;
     final String lexeme;
     final Object literal;
     final int line; 
+    final Symbol symbol;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line,
+            type == TokenType.IDENTIFIER ? Symbol.of(lexeme) : null);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, Symbol symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
     }
 
     public String toString() {
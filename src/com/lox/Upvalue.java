@@ -0,0 +1,18 @@
+package com.lox;
+
+/**
+ * Describes one variable a function captures from the function
+ * that encloses it. The Resolver records these on each Stmt.Function,
+ * and the Interpreter follows them when it creates a closure.
+ */
+class Upvalue {
+    // If true, 'index' is a slot in the enclosing function's frame.
+    // Otherwise, it's one of the enclosing function's own upvalues.
+    final boolean isLocal;
+    final int index;
+
+    Upvalue(boolean isLocal, int index) {
+        this.isLocal = isLocal;
+        this.index = index;
+    }
+}
@@ -0,0 +1,551 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A stack-based virtual machine that runs the bytecode produced by
+ * the Compiler. It is an alternative to the tree-walking Interpreter,
+ * selected with `--engine=vm`.
+ *
+ * All values live on one explicit value stack. A call frame is a window
+ * of that stack: the callee sits just below the frame, its arguments
+ * become the first local slots, and the operand stack grows above the
+ * locals. Lox calls don't recurse in Java, so the hot loop in run()
+ * is a single switch over the current function's code.
+ *
+ * Since the frames live on the heap, recursion isn't limited by the Java
+ * thread's stack, only by the stack size given to the VM (see
+ * `--stack-size`), and a runtime error can report the whole Lox call
+ * stack.
+ *
+ * NanBoxVM runs the same bytecode with a different value representation.
+ * It shares the frames, stack growth and error reporting here, and has
+ * its own run().
+ */
+class VM implements Engine {
+    private static final Cell[] NO_UPVALUES = new Cell[0];
+    // The default limit on the memory used by the value stack and frames,
+    // a guard against runaway recursion.
+    static final long DEFAULT_STACK_SIZE = 256L << 20;
+    // The approximate cost of a stack slot and of a call frame, in bytes,
+    // for checking the limit.
+    private static final int SLOT_SIZE = 8;
+    private static final int FRAME_SIZE = 32;
+    // The most frames a runtime error's stack trace lists.
+    private static final int TRACE_MAX = 20;
+
+    /**
+     * A function compiled to bytecode, together with the cells it captured.
+     */
+    static class Closure {
+        final Prototype prototype;
+        final Cell[] upvalues;
+
+        Closure(Prototype prototype, Cell[] upvalues) {
+            this.prototype = prototype;
+            this.upvalues = upvalues;
+        }
+
+        @Override
+        public String toString() {
+            return prototype.toString();
+        }
+    }
+
+    /**
+     * An active call: which closure is running, where it is in its code,
+     * and where its frame starts on the value stack.
+     */
+    static class CallFrame {
+        Closure closure;
+        int ip;
+        int base;
+    }
+
+    final Environment globals = new Environment();
+    Object[] stack = new Object[1024];
+    CallFrame[] frames = new CallFrame[64];
+    int frameCount = 0;
+    private final long maxStackSize;
+    private final int slotSize;
+
+    VM() {
+        this(DEFAULT_STACK_SIZE);
+    }
+
+    /**
+     * @param maxStackSize The most memory, in bytes, the Lox stack may
+     *                     use before a call fails with "Stack overflow."
+     */
+    VM(long maxStackSize) {
+        this(maxStackSize, SLOT_SIZE);
+    }
+
+    /**
+     * @param slotSize The approximate cost of a stack slot, in bytes.
+     */
+    VM(long maxStackSize, int slotSize) {
+        this.maxStackSize = maxStackSize;
+        this.slotSize = slotSize;
+        Natives.define(globals);
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements, int frameSize) {
+        Prototype script = new Compiler().compile(statements, frameSize);
+        // Stop if the program was too large to compile.
+        if (Lox.hadError) return;
+
+        try {
+            // The script's closure sits in slot 0, like any other callee.
+            stack[0] = new Closure(script, NO_UPVALUES);
+            pushFrame((Closure)stack[0], 1);
+            run();
+        } catch (RuntimeError error) {
+            if (Lox.stackTraces) error.trace = stackTrace(frames, frameCount, error.line);
+            Lox.runtimeError(error);
+        } finally {
+            Arrays.fill(stack, null);
+            frameCount = 0;
+        }
+    }
+
+    /**
+     * Sets up a frame for a call whose arguments start at 'base',
+     * boxing any parameters the function's closures capture.
+     */
+    CallFrame pushFrame(Closure closure, int base) {
+        Prototype prototype = closure.prototype;
+        try {
+            if (frameCount == frames.length) {
+                frames = Arrays.copyOf(frames,
+                    grow(frames.length, frameCount + 1, FRAME_SIZE, (long)stack.length * slotSize));
+            }
+            ensureCapacity(base + prototype.frameSize + prototype.maxStack);
+        } catch (OutOfMemoryError error) {
+            // The stack size is larger than the Java heap allows.
+            throw stackOverflow();
+        }
+
+        CallFrame frame = frames[frameCount];
+        if (frame == null) frame = frames[frameCount] = new CallFrame();
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+
+        for (int slot : prototype.capturedParams) {
+            stack[base + slot] = new Cell(value(base + slot));
+        }
+        return frame;
+    }
+
+    /**
+     * Reads the value in a stack slot, in its usual representation.
+     */
+    Object value(int slot) {
+        return stack[slot];
+    }
+
+    /**
+     * Reports a call that doesn't fit in the stack, at the caller's line.
+     */
+    RuntimeError stackOverflow() {
+        int line = frameCount > 0 ? lineOf(frames[frameCount - 1]) : 0;
+        return new RuntimeError(line, "Stack overflow.");
+    }
+
+    /**
+     * Grows the value stack so it can hold at least 'size' values.
+     */
+    void ensureCapacity(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack,
+                grow(stack.length, size, slotSize, (long)frames.length * FRAME_SIZE));
+        }
+    }
+
+    /**
+     * Works out the new length of the value stack or the frames array,
+     * doubling it but keeping both within the stack size. The limit is
+     * only checked here, so calls that fit don't pay for it.
+     * @param needed The least length that will do.
+     * @param elementSize The approximate size of an element, in bytes.
+     * @param otherSize The size of the other array, in bytes.
+     */
+    int grow(int length, int needed, int elementSize, long otherSize) {
+        long limit = Math.min((maxStackSize - otherSize) / elementSize, Integer.MAX_VALUE - 8);
+        if (needed > limit) throw stackOverflow();
+        return (int)Math.max(needed, Math.min(length * 2L, limit));
+    }
+
+    /**
+     * Describes the active calls, innermost first, for a runtime error
+     * at 'line' in the innermost one. Runs of the same call, as in deep
+     * recursion, are listed once with a count.
+     */
+    static List<String> stackTrace(CallFrame[] frames, int frameCount, int line) {
+        List<String> trace = new ArrayList<>();
+        Prototype previous = null;
+        int previousLine = -1;
+        int repeats = 0;
+        for (int i = frameCount - 1; i >= 0; i--) {
+            Prototype prototype = frames[i].closure.prototype;
+            int at = i == frameCount - 1 ? line : lineOf(frames[i]);
+            if (prototype == previous && at == previousLine) {
+                repeats++;
+                continue;
+            }
+            if (repeats > 0) trace.add("... repeated " + repeats + " more times");
+            repeats = 0;
+            if (trace.size() >= TRACE_MAX) {
+                trace.add("... " + (i + 1) + " more calls");
+                break;
+            }
+
+            String function = i == 0 ? "script" : prototype.name + "()";
+            trace.add("in " + function + " [line " + at + "]");
+            previous = prototype;
+            previousLine = at;
+        }
+        if (repeats > 0) trace.add("... repeated " + repeats + " more times");
+        return trace;
+    }
+
+    /**
+     * The main dispatch loop. Runs until the script's frame returns.
+     *
+     * The state of the running frame is kept in local variables for speed
+     * and written back to its CallFrame only when making a call.
+     */
+    void run() {
+        CallFrame frame = frames[frameCount - 1];
+        Object[] stack = this.stack;
+        byte[] code = frame.closure.prototype.chunk.code;
+        Object[] constants = frame.closure.prototype.chunk.constants;
+        Cell[] upvalues = frame.closure.upvalues;
+        int base = frame.base;
+        int ip = 0;
+        // The operand stack starts just above the frame's locals.
+        int sp = base + frame.closure.prototype.frameSize;
+
+        for (;;) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case OpCode.CONSTANT:
+                    stack[sp++] = constants[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.NIL:
+                    stack[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = true;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = false;
+                    break;
+                case OpCode.POP:
+                    sp--;
+                    break;
+
+                case OpCode.GET_LOCAL:
+                    stack[sp++] = stack[base + readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.SET_LOCAL:
+                    stack[base + readShort(code, ip)] = stack[sp - 1];
+                    ip += 2;
+                    break;
+                case OpCode.GET_CELL:
+                    stack[sp++] = ((Cell)stack[base + readShort(code, ip)]).value;
+                    ip += 2;
+                    break;
+                case OpCode.SET_CELL:
+                    ((Cell)stack[base + readShort(code, ip)]).value = stack[sp - 1];
+                    ip += 2;
+                    break;
+                case OpCode.NEW_CELL:
+                    stack[base + readShort(code, ip)] = new Cell(stack[--sp]);
+                    ip += 2;
+                    break;
+                case OpCode.GET_UPVALUE:
+                    stack[sp++] = upvalues[readShort(code, ip)].value;
+                    ip += 2;
+                    break;
+                case OpCode.SET_UPVALUE:
+                    upvalues[readShort(code, ip)].value = stack[sp - 1];
+                    ip += 2;
+                    break;
+                case OpCode.GET_GLOBAL:
+                    stack[sp++] = globals.get((Token)constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OpCode.SET_GLOBAL:
+                    globals.assign((Token)constants[readShort(code, ip)], stack[sp - 1]);
+                    ip += 2;
+                    break;
+                case OpCode.DEFINE_GLOBAL:
+                    globals.define((Symbol)constants[readShort(code, ip)], stack[--sp]);
+                    ip += 2;
+                    break;
+
+                case OpCode.EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Values.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = !Values.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.GREATER: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = (double)left > (double)right;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = (double)left >= (double)right;
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = (double)left < (double)right;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = (double)left <= (double)right;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double)left + (double)right;
+                        break;
+                    }
+                    Object sum = Values.add(left, right);
+                    if (sum == null) {
+                        throw error(ip, "Operands must be two numbers or two strings.");
+                    }
+                    stack[sp - 1] = sum;
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = (double)left - (double)right;
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    stack[sp - 1] = (double)left * (double)right;
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(ip, left, right);
+                    if ((double)right == 0.0) {
+                        throw error(ip, "Division by zero.");
+                    }
+                    stack[sp - 1] = (double)left / (double)right;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !Values.isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE:
+                    if (!(stack[sp - 1] instanceof Double)) {
+                        throw error(ip, "Operand must be a number.");
+                    }
+                    stack[sp - 1] = -(double)stack[sp - 1];
+                    break;
+
+                case OpCode.PRINT:
+                    System.out.println(Values.stringify(stack[--sp]));
+                    break;
+                case OpCode.JUMP:
+                    ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (!Values.isTruthy(stack[sp - 1])) ip += readShort(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.JUMP_IF_TRUE:
+                    if (Values.isTruthy(stack[sp - 1])) ip += readShort(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.LOOP:
+                    ip -= readShort(code, ip) - 2;
+                    break;
+
+                case OpCode.TAIL_CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    Object callee = stack[sp - argCount - 1];
+
+                    if (callee instanceof Closure) {
+                        Closure closure = (Closure)callee;
+                        checkArity(ip, closure.prototype.arity, argCount);
+
+                        // Move the callee and its arguments down over this
+                        // frame, and reuse it for the callee.
+                        System.arraycopy(stack, sp - argCount - 1, stack, base - 1, argCount + 1);
+                        Arrays.fill(stack, base + argCount, sp, null);
+                        frameCount--;
+                        frame = pushFrame(closure, base);
+                        stack = this.stack;
+                        code = closure.prototype.chunk.code;
+                        constants = closure.prototype.chunk.constants;
+                        upvalues = closure.upvalues;
+                        ip = 0;
+                        sp = base + closure.prototype.frameSize;
+                        break;
+                    }
+
+                    // Anything else is called as by a CALL, and the RETURN
+                    // that follows returns its result.
+                    Object result = callNative(ip, callee, sp - argCount, argCount);
+                    sp -= argCount + 1;
+                    stack[sp++] = result;
+                    break;
+                }
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    Object callee = stack[sp - argCount - 1];
+
+                    if (callee instanceof Closure) {
+                        Closure closure = (Closure)callee;
+                        checkArity(ip, closure.prototype.arity, argCount);
+
+                        // Save the caller's position and switch to the callee.
+                        frame.ip = ip;
+                        frame = pushFrame(closure, sp - argCount);
+                        stack = this.stack;
+                        code = closure.prototype.chunk.code;
+                        constants = closure.prototype.chunk.constants;
+                        upvalues = closure.upvalues;
+                        base = frame.base;
+                        ip = 0;
+                        sp = base + closure.prototype.frameSize;
+                        break;
+                    }
+
+                    Object result = callNative(ip, callee, sp - argCount, argCount);
+                    sp -= argCount + 1;
+                    stack[sp++] = result;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    Prototype prototype = (Prototype)constants[readShort(code, ip)];
+                    ip += 2;
+                    stack[sp++] = new Closure(prototype, captureUpvalues(prototype, base, upvalues));
+                    break;
+                }
+                case OpCode.RETURN: {
+                    Object result = stack[--sp];
+                    frameCount--;
+                    // Clear the finished frame (and its callee) so the
+                    // stack doesn't keep dead values alive.
+                    Arrays.fill(stack, base - 1, sp, null);
+                    if (frameCount == 0) return;
+
+                    sp = base - 1;
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.prototype.chunk.code;
+                    constants = frame.closure.prototype.chunk.constants;
+                    upvalues = frame.closure.upvalues;
+                    base = frame.base;
+                    ip = frame.ip;
+                    break;
+                }
+                default:
+                    throw error(ip, "Unknown opcode " + instruction + ".");
+            }
+        }
+    }
+
+    // --- VM Helper Methods ---
+
+    /**
+     * Collects the cells a new closure captures from the frame at 'base'
+     * and the running closure's 'upvalues'.
+     */
+    Cell[] captureUpvalues(Prototype prototype, int base, Cell[] upvalues) {
+        if (prototype.upvalues.length == 0) return NO_UPVALUES;
+
+        Cell[] cells = new Cell[prototype.upvalues.length];
+        for (int i = 0; i < cells.length; i++) {
+            Upvalue upvalue = prototype.upvalues[i];
+            cells[i] = upvalue.isLocal
+                ? (Cell)stack[base + upvalue.index]
+                : upvalues[upvalue.index];
+        }
+        return cells;
+    }
+
+    /**
+     * Calls anything that isn't a closure, such as a native, with the
+     * arguments on the stack from 'first'.
+     */
+    Object callNative(int ip, Object callee, int first, int argCount) {
+        if (!(callee instanceof LoxCallable)) {
+            throw error(ip, "Can only call functions and classes.");
+        }
+
+        // Natives are called directly. They don't use the interpreter
+        // argument, so there is none to pass.
+        LoxCallable function = (LoxCallable)callee;
+        checkArity(ip, function.arity(), argCount);
+        List<Object> arguments = new ArrayList<>(argCount);
+        for (int i = first; i < first + argCount; i++) {
+            arguments.add(value(i));
+        }
+        return function.call(null, arguments);
+    }
+
+    static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private void checkNumberOperands(int ip, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw error(ip, "Operands must be numbers.");
+    }
+
+    void checkArity(int ip, int arity, int argCount) {
+        if (argCount == arity) return;
+        throw error(ip, "Expected " + arity +
+            " arguments but got " + argCount + ".");
+    }
+
+    /**
+     * Creates a runtime error for the running frame's instruction
+     * just before 'ip'.
+     */
+    RuntimeError error(int ip, String message) {
+        Chunk chunk = frames[frameCount - 1].closure.prototype.chunk;
+        return new RuntimeError(chunk.lines[ip - 1], message);
+    }
+
+    static int lineOf(CallFrame frame) {
+        return frame.closure.prototype.chunk.lines[Math.max(frame.ip - 1, 0)];
+    }
+}
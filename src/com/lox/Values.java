@@ -0,0 +1,185 @@
+package com.lox;
+
+/**
+ * Helpers that define how Lox values behave, shared by every
+ * execution engine so they all agree on the language's semantics.
+ *
+ * Lox values are represented by plain Java objects:
+ * nil is null, numbers are Double, and strings are String.
+ *
+ * A string made by concatenation may also be a Rope, which appends in
+ * place (see Rope); isString() is true for both.
+ *
+ * An engine may also represent a whole number as a Long (see
+ * Engine.integers()). A Long is only ever a different representation of
+ * the double with the same value, never a different value: it's kept
+ * within MAX_INTEGER, where every integer is exactly a double, and each
+ * operation on Longs gives the result the same operation on doubles
+ * would, switching to Double where that isn't a whole number in range
+ * (like `-0`, or a product past 2^53). Programs behave the same either
+ * way, only faster.
+ */
+final class Values {
+    private Values() {}
+
+    // The largest magnitude of a Long number, 2^53.
+    static final long MAX_INTEGER = 1L << 53;
+
+    // Longs for the small whole numbers, which are most of them (loop
+    // counters, say), so making one doesn't allocate.
+    private static final int CACHE_LOW = -1024;
+    private static final int CACHE_HIGH = 1 << 16;
+    private static final Long[] CACHE = new Long[CACHE_HIGH - CACHE_LOW];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) CACHE[i] = (long)(i + CACHE_LOW);
+    }
+
+    /**
+     * Boxes a whole number in range as a Long, without allocating if
+     * it's a small one.
+     */
+    static Long box(long value) {
+        if (value >= CACHE_LOW && value < CACHE_HIGH) return CACHE[(int)value - CACHE_LOW];
+        return value;
+    }
+
+    static boolean isString(Object object) {
+        return object instanceof String || object instanceof Rope;
+    }
+
+    static boolean isNumber(Object object) {
+        return object instanceof Double || object instanceof Long;
+    }
+
+    /**
+     * The value of a number (a Double or a Long) as a double.
+     */
+    static double toDouble(Object number) {
+        if (number instanceof Long) return (long)number;
+        return (double)number;
+    }
+
+    /**
+     * Represents a whole number, which must be exact, as a Long if it's
+     * in range, or else as the double it rounds to.
+     */
+    static Object integer(long value) {
+        if (value >= -MAX_INTEGER && value <= MAX_INTEGER) return box(value);
+        return (double)value;
+    }
+
+    // Addition and subtraction of two Longs can't overflow a long, and
+    // the double of the exact result is what adding the doubles gives.
+
+    static Object add(long left, long right) {
+        return integer(left + right);
+    }
+
+    static Object subtract(long left, long right) {
+        return integer(left - right);
+    }
+
+    static Object multiply(long left, long right) {
+        long product = left * right;
+        if (Math.multiplyHigh(left, right) != (product >> 63)) {
+            // Past a long, so well past MAX_INTEGER.
+            return (double)left * (double)right;
+        }
+        // Multiplying doubles gives -0 for zero times a negative number.
+        if (product == 0 && (left < 0 || right < 0)) return -0.0;
+        return integer(product);
+    }
+
+    /**
+     * Negates a number, keeping it a Long if it is one. Negating zero
+     * gives -0, which only a Double can be.
+     */
+    static Object negate(Object number) {
+        if (number instanceof Long && (long)number != 0) return box(-(long)number);
+        return -toDouble(number);
+    }
+
+    /**
+     * Lox follows Ruby's rule: 'false' and 'nil' are falsey,
+     * everything else is truthy.
+     */
+    static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    /**
+     * Checks for Lox-style equality.
+     */
+    static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+        // A Long equals the Double it stands for. Like Double.equals(),
+        // which compares the bits, 0 doesn't equal -0.
+        if (a instanceof Long && b instanceof Double || a instanceof Double && b instanceof Long) {
+            return Double.doubleToLongBits(toDouble(a)) == Double.doubleToLongBits(toDouble(b));
+        }
+        // A Rope equals the String (or Rope) with the same text.
+        if (a instanceof Rope || b instanceof Rope) {
+            return isString(a) && isString(b) &&
+                ((CharSequence)a).length() == ((CharSequence)b).length() &&
+                a.toString().equals(b.toString());
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Implements '+', which is overloaded for numbers and strings.
+     * A number on either side of a string is converted to text.
+     * @return The result, or null if the operands can't be added
+     *         (the caller reports the error at its own location).
+     */
+    static Object add(Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+        if (left instanceof Long && right instanceof Long) {
+            return add((long)left, (long)right);
+        }
+        if (isNumber(left) && isNumber(right)) {
+            return toDouble(left) + toDouble(right);
+        }
+        if (isString(left) && isString(right)) {
+            return Rope.concat((CharSequence)left, (CharSequence)right);
+        }
+        // Allow string concatenation with numbers
+        if (isString(left) && isNumber(right)) {
+            return Rope.concat((CharSequence)left, stringify(right));
+        }
+        if (isNumber(left) && isString(right)) {
+            return Rope.concat(stringify(left), (CharSequence)right);
+        }
+        return null;
+    }
+
+    /**
+     * Converts a Lox object to a Java string for printing.
+     */
+    static String stringify(Object object) {
+        if (object == null) return "nil";
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+        if (object instanceof Long) {
+            // Printed like the Double it stands for, which only starts
+            // using an exponent at 10^7.
+            long value = (long)object;
+            if (value > -10_000_000 && value < 10_000_000) return Long.toString(value);
+            return stringify((double)value);
+        }
+
+        return object.toString();
+    }
+}
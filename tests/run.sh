@@ -0,0 +1,44 @@
+#!/bin/sh
+# Runs every script in tests/ and examples/ on each engine, and compiled to
+# a jar with --compile, and checks that the output and exit code match the
+# tree-walking interpreter's.
+#
+#   sh tests/run.sh
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+mkdir "$work/classes"
+javac -d "$work/classes" $(find "$root/src" -name '*.java') || exit 1
+
+run() {
+    "$@" > "$work/actual" 2>&1
+    echo "exit $?" >> "$work/actual"
+}
+
+failures=0
+for script in "$root"/tests/*.lang "$root"/examples/*.lang; do
+    name=${script#$root/}
+    run java -cp "$work/classes" com.lox.Lox --engine=interpreter "$script"
+    mv "$work/actual" "$work/expected"
+    status=ok
+
+    for engine in vm nanbox register lambda jit compile; do
+        if [ "$engine" = compile ]; then
+            jar="$work/jars/$(basename "$script" .lang).jar"
+            java -cp "$work/classes" com.lox.Lox --compile="$jar" "$script" &&
+                run java -jar "$jar"
+        else
+            run java -cp "$work/classes" com.lox.Lox --engine=$engine "$script"
+        fi
+        if ! cmp -s "$work/expected" "$work/actual"; then
+            echo "FAIL $name ($engine)"
+            diff "$work/expected" "$work/actual"
+            status=
+        fi
+    done
+    if [ "$status" = ok ]; then echo "ok   $name"; else failures=$((failures + 1)); fi
+done
+
+[ $failures -eq 0 ] || { echo "$failures of the scripts failed"; exit 1; }